@@ -601,7 +601,13 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
+    /**
+     * Shut the log down, which checkpoints it and saves the pages cached in
+     * the buffer pool for {@link Database#warmUpBufferPool()} on the next
+     * start.
+     */
     protected void shutdown() {
+        Database.getLogFile().shutdown();
         System.out.println("Bye");
     }
 
@@ -610,6 +616,7 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        Database.warmUpBufferPool();
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -701,6 +708,9 @@ public class Parser {
                     buffer.append("\n");
                 }
             }
+            if (!quit) { // end of input
+                shutdown();
+            }
         }
     }
 }
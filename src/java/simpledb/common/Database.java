@@ -28,6 +28,7 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool.getStats().registerMBean();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -60,16 +61,40 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /**
+     * Start reading back, in the background, the pages that were cached when
+     * the database was last shut down. Call it once the catalog is loaded.
+     *
+     * @return the number of pages scheduled to be read
+     */
+    public static int warmUpBufferPool() {
+        try {
+            return getBufferPool().warmUp(getLogFile().getWarmUpFile());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- replace the buffer pool with the given one,
+     * e.g. one using a different replacement policy, and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF = null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
+            bufferPool.getStats().registerMBean();
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
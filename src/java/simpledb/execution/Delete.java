@@ -88,9 +88,8 @@ public class Delete extends Operator {
             Tuple next = child.next();
             try {
                 Database.getBufferPool().deleteTuple(tid, next);
-            } catch (Exception e){
-                e.printStackTrace();
-                System.out.println("Error when deleting tuple: " + e.getMessage());
+            } catch (IOException e){
+                throw new DbException("error deleting tuple: " + e.getMessage());
             }
             cnt++;
         }
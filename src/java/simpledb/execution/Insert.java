@@ -10,6 +10,7 @@ import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -68,8 +69,8 @@ public class Insert extends Operator {
             cnt++;
             try {
                 Database.getBufferPool().insertTuple(tid, tableId, next);
-            } catch (Exception e){
-                e.printStackTrace();
+            } catch (IOException e){
+                throw new DbException("error inserting tuple: " + e.getMessage());
             }
         }
         Tuple tuple = new Tuple(tupleDesc);
@@ -11,6 +11,9 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -99,6 +102,7 @@ public class BTreeFile implements DbFile {
                             + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+                IOStats.recordRead(pageBuf.length);
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
@@ -116,6 +120,7 @@ public class BTreeFile implements DbFile {
                             + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+                IOStats.recordRead(pageBuf.length);
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
                     return new BTreeInternalPage(id, pageBuf, keyField);
                 } else if (id.pgcateg() == BTreePageId.LEAF) {
@@ -150,6 +155,28 @@ public class BTreeFile implements DbFile {
             rf.write(data);
             rf.close();
         }
+        IOStats.recordWrite(data.length);
+    }
+
+    /**
+     * Write the pages with positional writes through one channel instead of
+     * opening the file once per page.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        try (FileChannel channel = FileChannel.open(f.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (Page page : pages) {
+                BTreePageId id = (BTreePageId) page.getId();
+                ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+                long position = id.pgcateg() == BTreePageId.ROOT_PTR ? 0
+                        : BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+                while (data.hasRemaining()) {
+                    channel.write(data, position + data.position());
+                }
+                IOStats.recordWrite(data.capacity());
+            }
+        }
     }
 
     /**
@@ -1253,10 +1280,25 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
                 tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
         BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, null);
+        curp = pin(f.findLeafPage(tid, root, null).getId());
         it = curp.iterator();
     }
 
+    /**
+     * Pin the leaf page the iterator moves to, so it is not evicted while the
+     * iterator walks it.
+     */
+    private BTreeLeafPage pin(BTreePageId pid) throws DbException, TransactionAbortedException {
+        return (BTreeLeafPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, AccessHint.NORMAL);
+    }
+
+    private void unpin() {
+        if (curp != null) {
+            Database.getBufferPool().unpinPage(tid, curp.getId());
+            curp = null;
+        }
+    }
+
     /**
      * Read the next tuple either from the current page if it has more tuples or
      * from the next page by following the right sibling pointer.
@@ -1270,11 +1312,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
         while (it == null && curp != null) {
             BTreePageId nextp = curp.getRightSiblingId();
-            if (nextp == null) {
-                curp = null;
-            } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+            unpin();
+            if (nextp != null) {
+                curp = pin(nextp);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1299,6 +1339,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      */
     public void close() {
         super.close();
+        unpin();
         it = null;
         curp = null;
     }
@@ -1340,13 +1381,28 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
         BTreePageId root = rootPtr.getRootId();
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
                 || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, ipred.getField());
+            curp = pin(f.findLeafPage(tid, root, ipred.getField()).getId());
         } else {
-            curp = f.findLeafPage(tid, root, null);
+            curp = pin(f.findLeafPage(tid, root, null).getId());
         }
         it = curp.iterator();
     }
 
+    /**
+     * Pin the leaf page the iterator moves to, so it is not evicted while the
+     * iterator walks it.
+     */
+    private BTreeLeafPage pin(BTreePageId pid) throws DbException, TransactionAbortedException {
+        return (BTreeLeafPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, AccessHint.NORMAL);
+    }
+
+    private void unpin() {
+        if (curp != null) {
+            Database.getBufferPool().unpinPage(tid, curp.getId());
+            curp = null;
+        }
+    }
+
     /**
      * Read the next tuple either from the current page if it has more tuples matching
      * the predicate or from the next page by following the right sibling pointer.
@@ -1379,8 +1435,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             if (nextp == null) {
                 return null;
             } else {
-                curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                unpin();
+                curp = pin(nextp);
                 it = curp.iterator();
             }
         }
@@ -1401,6 +1457,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
      */
     public void close() {
         super.close();
+        unpin();
         it = null;
+        curp = null;
     }
 }
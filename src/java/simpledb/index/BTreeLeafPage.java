@@ -15,7 +15,7 @@ import java.util.NoSuchElementException;
  * @see BTreeFile
  * @see BufferPool
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements SlottedPage {
     private final byte[] header;
     private final Tuple[] tuples;
     private final int numSlots;
@@ -463,6 +463,36 @@ public class BTreeLeafPage extends BTreePage {
         return (header[headerbyte] & (1 << headerbit)) != 0;
     }
 
+    @Override
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * The header follows the parent and sibling pointers.
+     */
+    @Override
+    public int getHeaderOffset() {
+        return 3 * INDEX_SIZE;
+    }
+
+    @Override
+    public int getSlotSize() {
+        return td.getSize();
+    }
+
+    @Override
+    public void putSlot(int slot, byte[] tuple) {
+        markSlotUsed(slot, true);
+        tuples[slot] = readNextTuple(new DataInputStream(new ByteArrayInputStream(tuple)), slot);
+    }
+
+    @Override
+    public void clearSlot(int slot) {
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
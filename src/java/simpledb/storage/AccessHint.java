@@ -0,0 +1,20 @@
+package simpledb.storage;
+
+/**
+ * AccessHint tells the BufferPool how a page is being accessed, so that the
+ * replacement policy can tell pages worth keeping from pages that are only
+ * streamed through once.
+ *
+ * @see BufferPool#getPage(simpledb.transaction.TransactionId, PageId, simpledb.common.Permissions, AccessHint)
+ */
+public enum AccessHint {
+    /**
+     * A point access, e.g. an index lookup or a tuple update.
+     */
+    NORMAL,
+    /**
+     * The page is read as part of a sequential scan and is unlikely to be
+     * needed again soon.
+     */
+    SEQUENTIAL
+}
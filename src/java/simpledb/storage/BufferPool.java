@@ -4,12 +4,24 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
 import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import javax.xml.crypto.Data;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -37,77 +49,1026 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private int numPages;
+    /**
+     * Number of independent shards of the page table. Each shard owns its own
+     * replacement policy and monitor, so threads touching pages that hash to
+     * different shards never contend with each other.
+     */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /**
+     * Default number of pages a sequential scan reads ahead of its position:
+     * read-ahead is off unless turned on with {@link #setReadAheadPages}.
+     */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 0;
+
+    /**
+     * Number of background threads issuing read-ahead I/O.
+     */
+    private static final int READ_AHEAD_THREADS = 2;
+
+
+    /**
+     * Maximum number of pages; changes when the pool is resized.
+     */
+    private volatile int numPages;
+
+    private final PageTable pageTable;
+
+    /**
+     * Number of frames in use across all shards; a frame is reserved before a
+     * page is inserted so the pool never holds more than numPages pages.
+     */
+    private final AtomicInteger numResident = new AtomicInteger(0);
+
+    /**
+     * Shard where the next eviction sweep starts, so evictions are spread over
+     * all shards instead of always draining the first one.
+     */
+    private final AtomicInteger evictHand = new AtomicInteger(0);
+
+    /**
+     * Frames pinned by each transaction, one entry per pin, so pins left
+     * behind by an iterator that was never closed are released when the
+     * transaction completes.
+     */
+    private final Map<TransactionId, List<Frame>> pinned = new ConcurrentHashMap<>();
+
+    /**
+     * Pages each transaction may have dirtied: the pages it fetched with
+     * READ_WRITE, which no other transaction can modify until it completes,
+     * and the pages returned by its inserts and deletes. Commit and abort only
+     * look at these pages instead of sweeping the whole pool.
+     */
+    private final Map<TransactionId, Set<PageId>> dirtied = new ConcurrentHashMap<>();
+
+    /**
+     * Number of entries of all the dirtied sets, an upper bound of the number
+     * of dirty pages that is cheap to keep up to date.
+     */
+    private final AtomicInteger numDirtied = new AtomicInteger(0);
+
+    /**
+     * Held by a transaction while it updates pages through the pool or
+     * completes, and tried by the page cleaner before it writes back a page of
+     * the transaction, so a page is never written in the middle of an update.
+     */
+    private final Map<TransactionId, ReentrantLock> updateLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Transactions whose abort has been logged but that have not completed
+     * yet; the page cleaner no longer writes their pages back.
+     */
+    private final Set<TransactionId> aborting = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Pages of running transactions that the page cleaner wrote back before
+     * they committed, with the before image to put back on disk on abort.
+     */
+    private final Map<TransactionId, Map<PageId, Page>> stolen = new ConcurrentHashMap<>();
+
+    /**
+     * Number of latches pages are mapped to in row-locking mode.
+     */
+    private static final int LATCH_STRIPES = 64;
+
+    /**
+     * A tuple a transaction inserted or deleted in row-locking mode, with
+     * what is needed to take the change out of the page again.
+     */
+    private static class RowChange {
+        final TransactionId tid;
+        final HeapPageId pid;
+        final int slot;
+        /** The deleted tuple, or null if the tuple was inserted. */
+        final Tuple deleted;
+
+        RowChange(TransactionId tid, HeapPageId pid, int slot, Tuple deleted) {
+            this.tid = tid;
+            this.pid = pid;
+            this.slot = slot;
+            this.deleted = deleted;
+        }
+
+        void undo(HeapPage page) throws DbException {
+            if (deleted == null) {
+                page.deleteTuple(slot);
+            } else {
+                page.insertTuple(deleted, slot);
+            }
+        }
+    }
+
+    private volatile boolean rowLocking = false;
+
+    /**
+     * Short-term latches on heap pages in row-locking mode, striped by page.
+     * A latch is held only while a tuple is added to or removed from a page,
+     * or while the page is written back or rolled back, never until commit.
+     */
+    private final ReentrantLock[] latches = new ReentrantLock[LATCH_STRIPES];
+
+    /**
+     * Row changes of each transaction in row-locking mode, in the order they
+     * were made. Guarded by the transaction's update lock.
+     */
+    private final Map<TransactionId, List<RowChange>> rowChanges = new ConcurrentHashMap<>();
+
+    /**
+     * Row changes not committed yet, by page. A page's list is guarded by the
+     * page's latch.
+     */
+    private final Map<PageId, List<RowChange>> pendingRows = new ConcurrentHashMap<>();
+
+    /**
+     * A committed image of a page, kept for snapshot transactions that
+     * started before the commit that replaced it.
+     */
+    private static class Version {
+        /** The commit that replaced the image. */
+        final long replacedBy;
+        final Page image;
+
+        Version(long replacedBy, Page image) {
+            this.replacedBy = replacedBy;
+            this.image = image;
+        }
+    }
+
+    private volatile boolean snapshotReads = false;
+
+    /**
+     * Number of the last commit whose changes are visible to snapshots;
+     * written under the monitor of snapshots.
+     */
+    private volatile long commitSeq = 0;
+
+    /**
+     * Serializes the commits while snapshot reads are on, so commit numbers
+     * are published in order.
+     */
+    private final Object versionMonitor = new Object();
+
+    /**
+     * Running snapshot transactions, with the number of the last commit they
+     * see. Its monitor makes starting a snapshot atomic with publishing a
+     * commit.
+     */
+    private final Map<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Replaced page images still needed by some snapshot, by page, oldest
+     * first. Each list is guarded by its own monitor.
+     */
+    private final Map<PageId, List<Version>> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the page cleaner, one pass at a time. Its thread is a daemon that
+     * times out when idle, so a discarded pool does not leak it.
+     */
+    private final ThreadPoolExecutor cleanerExecutor;
+
+    private final AtomicBoolean cleanerScheduled = new AtomicBoolean(false);
+
+    private final Object cleanerMonitor = new Object();
+
+    /**
+     * Fraction of the pool the page cleaner keeps free of dirty pages; the
+     * cleaner is off by default, keeping the pool NO STEAL.
+     */
+    private volatile double cleanFraction = 0;
+
+    /**
+     * Off-heap frames pages are read into, or null if pages live on the heap.
+     */
+    private final FrameArena arena;
+
+    /**
+     * Runs read-ahead I/O in the background. Its threads are daemons that time
+     * out when idle, so a discarded pool does not leak them.
+     */
+    private final ThreadPoolExecutor readAheadExecutor;
+
+    /**
+     * Read-aheads queued or running, by page. A miss on one of these pages
+     * waits for the read-ahead instead of reading the page a second time.
+     */
+    private final Map<PageId, CompletableFuture<Void>> readAheads = new ConcurrentHashMap<>();
+
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+
+    private final BufferPoolStats stats = new BufferPoolStats(this);
+
+    private LockManager lockManager;
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.LRU);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * with the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   replacement policy of each shard of the page table
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Factory policy) {
+        this(numPages, DEFAULT_SHARDS, policy);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in a page table
+     * partitioned into numShards shards.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param numShards number of shards of the page table, capped at numPages
+     * @param policy    replacement policy of each shard of the page table
+     */
+    public BufferPool(int numPages, int numShards, ReplacementPolicy.Factory policy) {
+        this(numPages, numShards, policy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, optionally in a
+     * preallocated off-heap arena of numPages page-sized frames. In off-heap
+     * mode heap pages are read straight into a frame and are views over it;
+     * pages of files that do not support frames are still cached on the heap.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param numShards number of shards of the page table, capped at numPages
+     * @param policy    replacement policy of each shard of the page table
+     * @param offHeap   whether to keep page data in an off-heap frame arena
+     */
+    public BufferPool(int numPages, int numShards, ReplacementPolicy.Factory policy, boolean offHeap) {
+        // some code goes here
+        this.numPages = numPages;
+        this.pageTable = new PageTable(Math.max(1, Math.min(numShards, numPages)), numPages, policy);
+        this.arena = offHeap ? new FrameArena(numPages, pageSize) : null;
+        this.readAheadExecutor = new ThreadPoolExecutor(READ_AHEAD_THREADS, READ_AHEAD_THREADS,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "read-ahead");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.readAheadExecutor.allowCoreThreadTimeOut(true);
+        this.cleanerExecutor = new ThreadPoolExecutor(1, 1,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "page-cleaner");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.cleanerExecutor.allowCoreThreadTimeOut(true);
+        for (int i = 0; i < LATCH_STRIPES; i++) {
+            latches[i] = new ReentrantLock();
+        }
+        this.lockManager = new LockManager();
+    }
+
+    /**
+     * Creates a BufferPool that caches as many pages as fit in the given
+     * memory budget, counting the page data only.
+     *
+     * @param bytes memory budget of the pool in bytes
+     * @return a BufferPool of at least one page
+     */
+    public static BufferPool withMemoryBudget(long bytes) {
+        return new BufferPool(pagesInBudget(bytes));
+    }
+
+    private static int pagesInBudget(long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / pageSize));
+    }
+
+    /**
+     * @return the maximum number of pages of this buffer pool
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the memory budget of this buffer pool in bytes, page data only
+     */
+    public long getMemoryBudget() {
+        return (long) numPages * pageSize;
+    }
+
+    /**
+     * Resize the pool to as many pages as fit in the given memory budget.
+     *
+     * @param bytes the new memory budget of the pool in bytes
+     * @see #resize(int)
+     */
+    public void setMemoryBudget(long bytes) {
+        resize(pagesInBudget(bytes));
+    }
+
+    /**
+     * Grow or shrink the pool while it is in use. Growing takes effect at
+     * once. Shrinking evicts clean, unpinned pages one at a time, each under
+     * the monitor of its shard only, until the pool fits; if dirty or pinned
+     * pages are in the way, the pool stays over size and later misses evict
+     * the rest as pages become clean. The number of shards of the page table
+     * does not change.
+     *
+     * @param numPages the new maximum number of pages, at least one
+     */
+    public synchronized void resize(int numPages) {
+        if (numPages < 1) {
+            throw new IllegalArgumentException("a buffer pool holds at least one page");
+        }
+        this.numPages = numPages;
+        pageTable.capacityChanged(numPages);
+        if (arena != null) {
+            arena.resize(numPages);
+        }
+        while (numResident.get() > numPages) {
+            try {
+                evictPage();
+            } catch (DbException e) {
+                // everything left is dirty or pinned
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the hit, miss, eviction and I/O counters of this buffer pool
+     */
+    public BufferPoolStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the number of resident pages of each table, by table id
+     */
+    Map<Integer, Integer> getResidentPagesByTable() {
+        Map<Integer, Integer> residency = new HashMap<>();
+        for (Page page : pageTable.pages()) {
+            residency.merge(page.getId().getTableId(), 1, Integer::sum);
+        }
+        return residency;
+    }
+
+    /**
+     * @return the number of pages currently cached in this buffer pool
+     */
+    public int getNumResidentPages() {
+        return numResident.get();
+    }
+
+    /**
+     * @return the number of pages a sequential scan reads ahead of its
+     *         position, 0 if read-ahead is off. It never exceeds a quarter of
+     *         the pool, so pages read ahead are not evicted before they are used.
+     */
+    public int getReadAheadPages() {
+        return Math.min(readAheadPages, numPages / 4);
+    }
+
+    /**
+     * Set the number of pages a sequential scan reads ahead of its position.
+     *
+     * @param pages the read-ahead distance, 0 to turn read-ahead off
+     */
+    public void setReadAheadPages(int pages) {
+        this.readAheadPages = Math.max(0, pages);
+    }
+
+    /**
+     * @return the fraction of the pool the page cleaner keeps free of dirty
+     *         pages, 0 if the cleaner is off
+     */
+    public double getCleanFraction() {
+        return cleanFraction;
+    }
+
+    /**
+     * Set the fraction of the pool the page cleaner keeps free of dirty
+     * pages. When dirty pages fill more than the rest of the pool, the
+     * cleaner writes the least valued of them back in the background, after
+     * logging them, so misses find clean pages to evict. Pages of running
+     * transactions are written too (STEAL); an abort puts their before images
+     * back. With a fraction of 0 the cleaner is off, dirty pages are only
+     * written at commit, and a miss fails when every page is dirty.
+     *
+     * @param fraction between 0 and 1
+     */
+    public void setCleanFraction(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("clean fraction must be between 0 and 1");
+        }
+        this.cleanFraction = fraction;
+    }
+
+    /**
+     * @return true if tuples of heap files are inserted and deleted under
+     *         row locks
+     */
+    public boolean isRowLocking() {
+        return rowLocking;
+    }
+
+    /**
+     * Turn row-locking mode on or off. In row-locking mode, insertTuple and
+     * deleteTuple on heap files lock the RecordIds they change instead of
+     * the whole page, holding only intention locks on the page, so
+     * transactions updating different tuples of the same page do not wait
+     * for each other. Pages are protected by short latches while they are
+     * changed. At commit, a page is written with the changes of the
+     * transactions still running taken out again, and an abort takes its own
+     * changes out of the page in the pool, so the pool stays NO STEAL.
+     * Transactions reading whole pages still wait for the writers of their
+     * tuples. Only change the mode while no transaction is running.
+     */
+    public void setRowLocking(boolean rowLocking) {
+        this.rowLocking = rowLocking;
+    }
+
+    /**
+     * @return true if commits keep the page images replaced for snapshot
+     *         transactions
+     */
+    public boolean isSnapshotReads() {
+        return snapshotReads;
+    }
+
+    /**
+     * Turn snapshot reads on or off. While they are on, each commit keeps the
+     * committed images of the pages it replaces as long as a snapshot
+     * transaction started before it is running, and commits are serialized.
+     * Only change the mode while no transaction is running.
+     *
+     * @see #beginSnapshot(TransactionId)
+     */
+    public void setSnapshotReads(boolean snapshotReads) {
+        this.snapshotReads = snapshotReads;
+    }
+
+    /**
+     * Run a read-only transaction on a snapshot: every page it reads through
+     * the pool is the version committed when the snapshot began, rebuilt
+     * from the page's before image or from the images kept by later commits.
+     * The transaction takes no locks, so it never waits for writers and no
+     * writer waits for it; it cannot update pages. The snapshot ends with
+     * transactionComplete.
+     *
+     * @throws IllegalStateException if snapshot reads are off
+     */
+    public void beginSnapshot(TransactionId tid) {
+        if (!snapshotReads) {
+            throw new IllegalStateException("snapshot reads are off");
+        }
+        synchronized (snapshots) {
+            snapshots.put(tid, commitSeq);
+        }
+    }
+
+    /**
+     * @return the number of replaced page images kept for snapshots
+     */
+    public int getNumVersions() {
+        int n = 0;
+        for (List<Version> chain : versions.values()) {
+            synchronized (chain) {
+                n += chain.size();
+            }
+        }
+        return n;
+    }
+
+    public static int getPageSize() {
+        return pageSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setPageSize(int pageSize) {
+        BufferPool.pageSize = pageSize;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetPageSize() {
+        BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions.
+     * Will acquire a lock and may block if that lock is held by another
+     * transaction.
+     * <p>
+     * The retrieved page should be looked up in the buffer pool.  If it
+     * is present, it should be returned.  If it is not present, it should
+     * be added to the buffer pool and returned.  If there is insufficient
+     * space in the buffer pool, a page should be evicted and the new page
+     * should be added in its place.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, AccessHint.NORMAL);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, telling
+     * the replacement policy how the page is being accessed.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param hint how the page is being accessed
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, AccessHint hint)
+            throws TransactionAbortedException, DbException {
+        // some code goes here
+        Long snapshot = tid == null ? null : snapshots.get(tid);
+        if (snapshot != null) {
+            return snapshotPage(snapshot, pid, perm, hint);
+        }
+        long lockStart = System.nanoTime();
+        try {
+            lockManager.acquireLock(tid, pid, perm);
+        } finally {
+            lockManager.getProfiler().recordPageLock(System.nanoTime() - lockStart);
+        }
+        if (perm == Permissions.READ_WRITE) {
+            mayDirty(tid, pid);
+        }
+        return fetchPage(pid, hint);
+    }
+
+    /**
+     * Build the version of a page a snapshot sees. The current committed
+     * image is read first, the before image of the resident page or the
+     * image the cleaner replaced on disk, then the images kept by commits
+     * are searched: a commit keeps the image it replaces before it changes
+     * anything, so an image read too late is always superseded by a kept one.
+     */
+    private Page snapshotPage(long snapshot, PageId pid, Permissions perm, AccessHint hint) throws DbException {
+        if (perm == Permissions.READ_WRITE) {
+            throw new DbException("snapshot transactions cannot update pages");
+        }
+        Page image = fetchPage(pid, hint).getBeforeImage();
+        for (Map<PageId, Page> befores : stolen.values()) {
+            Page before = befores.get(pid);
+            if (before != null) {
+                image = before;
+            }
+        }
+        List<Version> chain = versions.get(pid);
+        if (chain != null) {
+            synchronized (chain) {
+                for (Version version : chain) {
+                    if (version.replacedBy > snapshot) {
+                        return version.image;
+                    }
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Keep the committed images of the pages the transaction is about to
+     * commit, for the running snapshots. Called under the version monitor.
+     */
+    private void keepVersions(TransactionId tid, long commit) {
+        Map<PageId, Page> images = new HashMap<>();
+        for (Page page : dirtyPages(tid)) {
+            images.put(page.getId(), page.getBeforeImage());
+        }
+        List<RowChange> changes = rowChanges.get(tid);
+        if (changes != null) {
+            for (RowChange change : changes) {
+                Page page = pageTable.peek(change.pid);
+                if (page != null) {
+                    images.putIfAbsent(change.pid, page.getBeforeImage());
+                }
+            }
+        }
+        Map<PageId, Page> befores = stolen.get(tid);
+        if (befores != null) {
+            images.putAll(befores);
+        }
+        for (Page image : images.values()) {
+            List<Version> chain = versions.computeIfAbsent(image.getId(), k -> new ArrayList<>());
+            synchronized (chain) {
+                chain.add(new Version(commit, image));
+            }
+        }
+    }
+
+    /**
+     * @return the last commit seen by the oldest running snapshot, or the
+     *         last commit if no snapshot is running
+     */
+    private long oldestSnapshot() {
+        synchronized (snapshots) {
+            long oldest = commitSeq;
+            for (long snapshot : snapshots.values()) {
+                oldest = Math.min(oldest, snapshot);
+            }
+            return oldest;
+        }
+    }
+
+    /**
+     * Drop the kept images no running snapshot can see any more. Runs under
+     * the version monitor, so no commit adds images meanwhile.
+     */
+    private void collectVersions() {
+        synchronized (versionMonitor) {
+            long oldest = oldestSnapshot();
+            for (Iterator<List<Version>> it = versions.values().iterator(); it.hasNext(); ) {
+                List<Version> chain = it.next();
+                synchronized (chain) {
+                    chain.removeIf(version -> version.replacedBy <= oldest);
+                    if (chain.isEmpty()) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Look the page up in the pool, reading it if it is not resident, without
+     * locking it.
+     */
+    private Page fetchPage(PageId pid, AccessHint hint) throws DbException {
+        Page page = pageTable.get(pid, hint);
+        if (page != null) {
+            stats.recordHit();
+            return page;
+        }
+        // a read-ahead of the page may be in flight: wait for it instead of reading the page
+        // twice, then look up again in case it completed since the first lookup
+        awaitReadAhead(pid);
+        page = pageTable.get(pid, hint);
+        if (page != null) {
+            stats.recordHit();
+            return page;
+        }
+        stats.recordMiss();
+        reserveFrame();
+        return loadPage(pid, hint);
+    }
+
+    /**
+     * Load the given pages into the pool in the background, without locking
+     * them on behalf of any transaction; the transaction that later reads
+     * them still acquires its locks through getPage. Read-ahead is best
+     * effort: a page is skipped if it is already resident or being read,
+     * dropped if no free or clean slot can be found for it, and counted in
+     * {@link BufferPoolStats#getReadAheadFailures()} if it cannot be read.
+     *
+     * @param pids the pages to read, in the order they should be read
+     */
+    public void readAhead(List<? extends PageId> pids) {
+        readAhead(pids, AccessHint.SEQUENTIAL);
+    }
+
+    private void readAhead(List<? extends PageId> pids, AccessHint hint) {
+        for (PageId pid : pids) {
+            if (pageTable.contains(pid)) {
+                continue;
+            }
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            if (readAheads.putIfAbsent(pid, done) != null) {
+                continue;
+            }
+            try {
+                readAheadExecutor.execute(() -> {
+                    try {
+                        if (!pageTable.contains(pid) && tryReserveFrame()) {
+                            if (loadPage(pid, hint) != null) {
+                                stats.recordReadAhead();
+                            } else {
+                                stats.recordReadAheadFailure();
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        // best effort: the page may be gone, e.g. when warming up from a stale list
+                        stats.recordReadAheadFailure();
+                    } finally {
+                        readAheads.remove(pid);
+                        done.complete(null);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                readAheads.remove(pid);
+                done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Record the ids of the resident pages in a file, most valued first, for
+     * {@link #warmUp(File)} to read them back after a restart.
+     *
+     * @param f the file to write, replaced if it exists
+     */
+    public void saveResidentPageIds(File f) throws IOException {
+        WarmUpFile.write(f, pageTable.pageIdsByValue());
+    }
+
+    /**
+     * Read back in the background the pages whose ids were recorded by
+     * {@link #saveResidentPageIds(File)}, so queries find the pages that were
+     * hot before a restart already cached. The most valued pages that fit in
+     * the pool are read, sorted by table and page number so the reads are as
+     * sequential as possible. Pages of tables no longer in the catalog are
+     * skipped. Must be called once the catalog is loaded.
+     *
+     * @param f the file written by saveResidentPageIds
+     * @return the number of pages scheduled to be read
+     */
+    public int warmUp(File f) throws IOException {
+        List<PageId> saved = WarmUpFile.read(f);
+        List<PageId> pids = new ArrayList<>();
+        for (PageId pid : saved.subList(0, Math.min(saved.size(), numPages))) {
+            try {
+                Database.getCatalog().getDatabaseFile(pid.getTableId());
+                pids.add(pid);
+            } catch (NoSuchElementException e) {
+                // the table was dropped
+            }
+        }
+        pids.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+        readAhead(pids, AccessHint.NORMAL);
+        return pids.size();
+    }
+
+    /**
+     * Wait for a pending read-ahead of the page, if any.
+     */
+    private void awaitReadAhead(PageId pid) {
+        CompletableFuture<Void> pending = readAheads.get(pid);
+        if (pending != null) {
+            pending.join();
+        }
+    }
+
+    /**
+     * Read a missing page from disk and cache it, on behalf of a caller that
+     * already reserved a slot of the pool. The read happens outside of the
+     * shard monitor so a miss does not stall hits on the same shard.
+     * <p>
+     * In off-heap mode the page is read into a free frame of the arena. The
+     * reserved slot guarantees there is one: every resident page holds at
+     * most one frame and evicting a page gives its frame back.
+     *
+     * @return the cached page, which is the copy another thread cached
+     *         meanwhile if there is one, or null if the page does not exist
+     */
+    private Page loadPage(PageId pid, AccessHint hint) {
+        ByteBuffer frame = arena != null && arena.frameSize() == pageSize ? arena.allocate() : null;
+        Page page;
+        try {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            page = frame == null ? dbFile.readPage(pid) : dbFile.readPage(pid, frame);
+        } catch (RuntimeException e) {
+            // files reject pages that do not exist by throwing; give the slot back
+            if (frame != null) {
+                arena.release(frame);
+            }
+            numResident.decrementAndGet();
+            throw e;
+        }
+        if (frame != null && !(page instanceof HeapPage && ((HeapPage) page).isViewOf(frame))) {
+            arena.release(frame);
+        }
+        if (page == null) {
+            numResident.decrementAndGet();
+            return null;
+        }
+        Page cached = pageTable.putIfAbsent(page, hint);
+        if (cached != null) {
+            releaseFrame(page);
+            numResident.decrementAndGet();
+            return cached;
+        }
+        return page;
+    }
+
+    /**
+     * Give the arena frame of a page leaving the pool back to the arena. The
+     * page is first copied to the heap, since its users may still hold it.
+     */
+    private void releaseFrame(Page page) {
+        if (arena != null && page instanceof HeapPage) {
+            ByteBuffer frame = ((HeapPage) page).detach();
+            if (frame != null) {
+                arena.release(frame);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId,
+     * Permissions, AccessHint)} and pin it, so it stays in the pool until the
+     * caller releases it with {@link #unpinPage(TransactionId, PageId)}.
+     * Iterators pin the page they are walking, so eviction never drops it
+     * under them. A page may be pinned several times; it becomes evictable
+     * again once every pin has been released.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param hint how the page is being accessed
+     * @return the pinned page, or null if the page does not exist
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, AccessHint hint)
+            throws TransactionAbortedException, DbException {
+        if (snapshots.containsKey(tid)) {
+            // a snapshot gets its own copy of the page, which needs no pin
+            return getPage(tid, pid, perm, hint);
+        }
+        while (true) {
+            Page page = getPage(tid, pid, perm, hint);
+            if (page == null) {
+                return null;
+            }
+            Frame frame = pageTable.pin(pid);
+            if (frame != null) {
+                List<Frame> frames = pinned.computeIfAbsent(tid, k -> new ArrayList<>());
+                synchronized (frames) {
+                    frames.add(frame);
+                }
+                return frame.getPage();
+            }
+            // evicted between the lookup and the pin, fetch it again
+        }
+    }
+
+    /**
+     * Release one pin the transaction holds on the specified page. Does
+     * nothing if the transaction does not hold a pin on it.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        List<Frame> frames = pinned.get(tid);
+        if (frames == null) {
+            return;
+        }
+        Frame frame = null;
+        synchronized (frames) {
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                if (frames.get(i).getId().equals(pid)) {
+                    frame = frames.remove(i);
+                    break;
+                }
+            }
+        }
+        if (frame != null) {
+            pageTable.unpin(frame);
+        }
+    }
 
-    private LRUCache<PageId, Page> lruCache;
+    /**
+     * Return true if the specified page is in the pool and pinned by any
+     * transaction
+     */
+    public boolean isPinned(PageId pid) {
+        return pageTable.isPinned(pid);
+    }
 
-    private LockManager lockManager;
+    /**
+     * Release every pin still held by the transaction.
+     */
+    private void unpinAll(TransactionId tid) {
+        List<Frame> frames = pinned.remove(tid);
+        if (frames == null) {
+            return;
+        }
+        synchronized (frames) {
+            for (Frame frame : frames) {
+                pageTable.unpin(frame);
+            }
+        }
+    }
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
-     *
-     * @param numPages maximum number of pages in this buffer pool.
+     * Remember that the transaction may dirty the page.
      */
-    public BufferPool(int numPages) {
-        // some code goes here
-        this.numPages = numPages;
-        this.lruCache = new LRUCache<>(numPages);
-        this.lockManager = new LockManager();
+    private void mayDirty(TransactionId tid, PageId pid) {
+        if (tid != null && dirtied.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid)) {
+            numDirtied.incrementAndGet();
+            scheduleCleaner();
+        }
     }
 
-    public static int getPageSize() {
-        return pageSize;
+    private ReentrantLock updateLock(TransactionId tid) {
+        return updateLocks.computeIfAbsent(tid, k -> new ReentrantLock());
     }
 
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void setPageSize(int pageSize) {
-        BufferPool.pageSize = pageSize;
+    /**
+     * @return the pages the transaction dirtied that are still resident and
+     *         dirty, in no particular order
+     */
+    private List<Page> dirtyPages(TransactionId tid) {
+        Set<PageId> pids = dirtied.get(tid);
+        if (pids == null) {
+            return Collections.emptyList();
+        }
+        List<Page> pages = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            Page page = pageTable.peek(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                pages.add(page);
+            }
+        }
+        return pages;
     }
 
-    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-    public static void resetPageSize() {
-        BufferPool.pageSize = DEFAULT_PAGE_SIZE;
+    /**
+     * Cache a page, replacing the copy already in the pool if there is one.
+     */
+    private void putPage(Page page) throws DbException {
+        Page previous = pageTable.replace(page);
+        if (previous == null) {
+            reserveFrame();
+            if (pageTable.putIfAbsent(page, AccessHint.NORMAL) == null) {
+                return;
+            }
+            numResident.decrementAndGet();
+            previous = pageTable.replace(page);
+        }
+        if (previous != null && previous != page) {
+            releaseFrame(previous);
+        }
     }
 
     /**
-     * Retrieve the specified page with the associated permissions.
-     * Will acquire a lock and may block if that lock is held by another
-     * transaction.
-     * <p>
-     * The retrieved page should be looked up in the buffer pool.  If it
-     * is present, it should be returned.  If it is not present, it should
-     * be added to the buffer pool and returned.  If there is insufficient
-     * space in the buffer pool, a page should be evicted and the new page
-     * should be added in its place.
+     * Claim one frame of the pool for a read-ahead, evicting at most one clean
+     * page, so read-ahead never stalls on or fails because of a full pool.
      *
-     * @param tid  the ID of the transaction requesting the page
-     * @param pid  the ID of the requested page
-     * @param perm the requested permissions on the page
+     * @return false if the pool is full of dirty or pinned pages
      */
-    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
-            throws TransactionAbortedException, DbException {
-        // some code goes here
-        boolean lockAcquired = false;
-        long start = System.currentTimeMillis();
-        long timeout = new Random().nextInt(2000);
-        while(!lockAcquired){
-            long now = System.currentTimeMillis();
-            if(now - start > timeout){
-                throw new TransactionAbortedException();
+    private boolean tryReserveFrame() {
+        try {
+            if (numResident.get() >= numPages) {
+                evictPage();
             }
-            lockAcquired = lockManager.acquireLock(tid, pid, perm);
+        } catch (DbException e) {
+            return false;
         }
-        if(lruCache.get(pid) == null){
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            if(lruCache.getSize() >= numPages){
-                evictPage();
+        while (true) {
+            int n = numResident.get();
+            if (n >= numPages) {
+                return false;
             }
-            lruCache.put(pid, page);
-            return page;
-        } else {
-            return lruCache.get(pid);
+            if (numResident.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Claim one frame of the pool, evicting pages until one is free.
+     */
+    private void reserveFrame() throws DbException {
+        while (true) {
+            int n = numResident.get();
+            if (n < numPages) {
+                if (numResident.compareAndSet(n, n + 1)) {
+                    return;
+                }
+            } else {
+                try {
+                    evictPage();
+                } catch (DbException e) {
+                    // slots reserved by read-aheads in flight become evictable once they
+                    // complete; otherwise write back a dirty page here rather than fail
+                    if (!awaitReadAheads() && cleanPages(1) == 0) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for every read-ahead in flight.
+     *
+     * @return false if there was none
+     */
+    private boolean awaitReadAheads() {
+        List<CompletableFuture<Void>> pending = new ArrayList<>(readAheads.values());
+        for (CompletableFuture<Void> done : pending) {
+            done.join();
         }
+        return !pending.isEmpty();
     }
 
     /**
@@ -145,6 +1106,25 @@ public class BufferPool {
         return lockManager.holdLock(tid, p);
     }
 
+    /**
+     * Stop the page cleaner from writing back pages of a transaction that is
+     * being rolled back, waiting for a pass writing one of them to finish.
+     * A page logged for the transaction after its ABORT record would make
+     * recovery undo the transaction again, over writes committed since.
+     * {@link #transactionComplete(TransactionId, boolean)} lifts it.
+     *
+     * @param tid the aborting transaction
+     */
+    public void beginAbort(TransactionId tid) {
+        ReentrantLock updateLock = updateLock(tid);
+        updateLock.lock();
+        try {
+            aborting.add(tid);
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
@@ -155,18 +1135,61 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
-        if (commit){
-            try {
-                newFlushPages(tid);
-            } catch (IOException e){
-                e.printStackTrace();
+        if (snapshots.remove(tid) != null) {
+            collectVersions();
+            return;
+        }
+        ReentrantLock updateLock = updateLock(tid);
+        updateLock.lock();
+        try {
+            if (commit && snapshotReads){
+                synchronized (versionMonitor) {
+                    long commitNumber = commitSeq + 1;
+                    keepVersions(tid, commitNumber);
+                    flushCommitted(tid);
+                    synchronized (snapshots) {
+                        commitSeq = commitNumber;
+                    }
+                }
+                collectVersions();
+            } else if (commit){
+                flushCommitted(tid);
+            } else {
+                rollback(tid);
+                abortRows(tid);
             }
-        } else {
-            rollback(tid);
+            stolen.remove(tid);
+            Set<PageId> pids = dirtied.remove(tid);
+            if (pids != null) {
+                numDirtied.addAndGet(-pids.size());
+            }
+        } finally {
+            aborting.remove(tid);
+            updateLock.unlock();
+            updateLocks.remove(tid);
         }
+        unpinAll(tid);
         lockManager.releaseAllLock(tid);
     }
 
+    /**
+     * Write back the pages of a committing transaction.
+     */
+    private void flushCommitted(TransactionId tid) {
+        try {
+            newFlushPages(tid);
+            commitRows(tid);
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    private void checkUpdatable(TransactionId tid) throws DbException {
+        if (tid != null && snapshots.containsKey(tid)) {
+            throw new DbException("snapshot transactions cannot update tables");
+        }
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other
@@ -186,12 +1209,26 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        checkUpdatable(tid);
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> pages = dbFile.insertTuple(tid, t);
-        for (Page page : pages){
-            page.markDirty(true, tid);
-            lruCache.put(page.getId(), page);
+        ReentrantLock updateLock = updateLock(tid);
+        updateLock.lock();
+        try {
+            if (rowLocking && dbFile instanceof HeapFile) {
+                insertRow(tid, (HeapFile) dbFile, t);
+                return;
+            }
+            List<Page> pages = dbFile.insertTuple(tid, t);
+            for (Page page : pages){
+                page.markDirty(true, tid);
+                mayDirty(tid, page.getId());
+                putPage(page);
+            }
+        } finally {
+            updateLock.unlock();
         }
+        // the pages could not be cleaned while they were being updated
+        scheduleCleaner();
     }
 
     /**
@@ -211,12 +1248,248 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        checkUpdatable(tid);
         PageId pageId = t.getRecordId().getPageId();
         int tableId = pageId.getTableId();
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> pages = dbFile.deleteTuple(tid, t);
-        for (int i=0; i<pages.size(); i++){
-            pages.get(i).markDirty(true, tid);
+        ReentrantLock updateLock = updateLock(tid);
+        updateLock.lock();
+        try {
+            if (rowLocking && dbFile instanceof HeapFile) {
+                deleteRow(tid, t);
+                return;
+            }
+            List<Page> pages = dbFile.deleteTuple(tid, t);
+            for (int i=0; i<pages.size(); i++){
+                pages.get(i).markDirty(true, tid);
+                mayDirty(tid, pages.get(i).getId());
+            }
+        } finally {
+            updateLock.unlock();
+        }
+        scheduleCleaner();
+    }
+
+    private ReentrantLock latch(PageId pid) {
+        return latches[Math.floorMod(pid.hashCode(), LATCH_STRIPES)];
+    }
+
+    /**
+     * Take the latches of the pages in one order, so two threads latching
+     * several pages never wait for each other.
+     *
+     * @return the latches taken
+     */
+    private List<ReentrantLock> latchAll(Collection<? extends PageId> pids) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (PageId pid : pids) {
+            stripes.add(Math.floorMod(pid.hashCode(), LATCH_STRIPES));
+        }
+        List<ReentrantLock> taken = new ArrayList<>(stripes.size());
+        for (int stripe : stripes) {
+            latches[stripe].lock();
+            taken.add(latches[stripe]);
+        }
+        return taken;
+    }
+
+    /**
+     * Insert a tuple under a row lock: into the first empty slot whose row
+     * lock and page intention lock can be granted at once, skipping slots
+     * freed by deletes not committed yet, or into a new page at the end of
+     * the file. Called with the transaction's update lock held.
+     */
+    private void insertRow(TransactionId tid, HeapFile file, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        lockManager.acquireTableLock(tid, file.getId(), LockMode.IX, Long.MAX_VALUE);
+        while (true) {
+            int numPages = file.numPages();
+            for (int i = 0; i < numPages; i++) {
+                if (insertRow(tid, new HeapPageId(file.getId(), i), t)) {
+                    return;
+                }
+            }
+            synchronized (file) {
+                if (file.numPages() == numPages) {
+                    HeapPageId pid = new HeapPageId(file.getId(), numPages);
+                    file.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the tuple was inserted into the page
+     */
+    private boolean insertRow(TransactionId tid, HeapPageId pid, Tuple t) throws DbException {
+        ReentrantLock latch = latch(pid);
+        latch.lock();
+        try {
+            HeapPage page = (HeapPage) fetchPage(pid, AccessHint.NORMAL);
+            for (int slot = 0; slot < page.numSlots; slot++) {
+                if (page.isSlotUsed(slot)
+                        || !lockManager.tryAcquireRowLock(tid, new RecordId(pid, slot), Permissions.READ_WRITE)) {
+                    continue;
+                }
+                page.insertTuple(t, slot);
+                addRowChange(page, new RowChange(tid, pid, slot, null));
+                return true;
+            }
+            return false;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Delete a tuple under a row lock. Called with the transaction's update
+     * lock held.
+     */
+    private void deleteRow(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        HeapPageId pid = (HeapPageId) rid.getPageId();
+        lockManager.acquireRowLock(tid, rid, Permissions.READ_WRITE, Long.MAX_VALUE);
+        ReentrantLock latch = latch(pid);
+        latch.lock();
+        try {
+            HeapPage page = (HeapPage) fetchPage(pid, AccessHint.NORMAL);
+            Tuple deleted = page.getTuple(rid.getTupleNumber());
+            page.deleteTuple(t);
+            addRowChange(page, new RowChange(tid, pid, rid.getTupleNumber(), deleted));
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Record a row change made to a page and keep the page in the pool until
+     * it is written back. Called with the page's latch held.
+     */
+    private void addRowChange(HeapPage page, RowChange change) throws DbException {
+        rowChanges.computeIfAbsent(change.tid, k -> new ArrayList<>()).add(change);
+        pendingRows.computeIfAbsent(change.pid, k -> new ArrayList<>()).add(change);
+        page.markDirty(true, change.tid);
+        // the page may have been evicted since it was fetched, while still clean
+        putPage(page);
+    }
+
+    /**
+     * Write back the pages the transaction changed in row-locking mode. Each
+     * page is written with the changes of the transactions still running on
+     * it taken out, so the disk only ever holds committed tuples, and that
+     * committed copy becomes the before image of the page.
+     */
+    private void commitRows(TransactionId tid) throws IOException {
+        List<RowChange> changes = rowChanges.remove(tid);
+        if (changes == null) {
+            return;
+        }
+        Map<PageId, HeapPage> pages = new LinkedHashMap<>();
+        for (RowChange change : changes) {
+            pages.put(change.pid, null);
+        }
+        List<ReentrantLock> taken = latchAll(pages.keySet());
+        try {
+            LogFile log = Database.getLogFile();
+            long lastLsn = -1;
+            Map<PageId, Long> lsns = new HashMap<>();
+            Map<Integer, List<Page>> byFile = new TreeMap<>();
+            for (PageId pid : new ArrayList<>(pages.keySet())) {
+                HeapPage page = (HeapPage) pageTable.peek(pid);
+                if (page == null) {
+                    pages.remove(pid);
+                    continue;
+                }
+                HeapPage committed = new HeapPage((HeapPageId) pid, page.getPageData());
+                List<RowChange> pending = pendingRows.getOrDefault(pid, Collections.emptyList());
+                for (int i = pending.size() - 1; i >= 0; i--) {
+                    if (!pending.get(i).tid.equals(tid)) {
+                        pending.get(i).undo(committed);
+                    }
+                }
+                lastLsn = log.logWrite(tid, page.getBeforeImage(), committed);
+                lsns.put(pid, lastLsn);
+                pages.put(pid, page);
+                byFile.computeIfAbsent(pid.getTableId(), k -> new ArrayList<>()).add(committed);
+            }
+            if (lastLsn >= 0) {
+                log.flushTo(lastLsn);
+            }
+            for (Map.Entry<Integer, List<Page>> entry : byFile.entrySet()) {
+                List<Page> filePages = entry.getValue();
+                filePages.sort(Comparator.comparingInt(page -> page.getId().getPageNumber()));
+                Database.getCatalog().getDatabaseFile(entry.getKey()).writePages(filePages);
+                for (Page committed : filePages) {
+                    log.pageWritten(committed.getId(), lsns.get(committed.getId()));
+                    pages.get(committed.getId()).setBeforeImage(committed.getPageData());
+                    stats.recordWriteback();
+                }
+            }
+            for (PageId pid : pages.keySet()) {
+                dropRowChanges(tid, pages.get(pid));
+            }
+        } catch (DbException e) {
+            throw new IOException(e);
+        } finally {
+            for (ReentrantLock latch : taken) {
+                latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Take the changes the transaction made in row-locking mode out of the
+     * pages in the pool, newest first. Nothing is on disk yet.
+     */
+    private void abortRows(TransactionId tid) {
+        List<RowChange> changes = rowChanges.remove(tid);
+        if (changes == null) {
+            return;
+        }
+        Set<PageId> pids = new HashSet<>();
+        for (RowChange change : changes) {
+            pids.add(change.pid);
+        }
+        List<ReentrantLock> taken = latchAll(pids);
+        try {
+            for (int i = changes.size() - 1; i >= 0; i--) {
+                HeapPage page = (HeapPage) pageTable.peek(changes.get(i).pid);
+                if (page != null) {
+                    changes.get(i).undo(page);
+                }
+            }
+            for (PageId pid : pids) {
+                HeapPage page = (HeapPage) pageTable.peek(pid);
+                if (page != null) {
+                    dropRowChanges(tid, page);
+                } else {
+                    pendingRows.remove(pid);
+                }
+            }
+        } catch (DbException e) {
+            e.printStackTrace();
+        } finally {
+            for (ReentrantLock latch : taken) {
+                latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Forget the transaction's changes to a page, which stays dirty as long
+     * as other transactions have changes on it. Called with the page's latch
+     * held.
+     */
+    private void dropRowChanges(TransactionId tid, HeapPage page) {
+        List<RowChange> pending = pendingRows.get(page.getId());
+        if (pending != null) {
+            pending.removeIf(change -> change.tid.equals(tid));
+        }
+        if (pending == null || pending.isEmpty()) {
+            pendingRows.remove(page.getId());
+            page.markDirty(false, null);
+        } else {
+            page.markDirty(true, pending.get(0).tid);
         }
     }
 
@@ -228,21 +1501,20 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        while (head != tail){
-            Page value = head.value;
-            if (value != null && value.isDirty() != null){
+        for (Page value : pageTable.pages()) {
+            if (value.isDirty() != null) {
                 DbFile dbFile = Database.getCatalog().getDatabaseFile(value.getId().getTableId());
                 try {
-                    Database.getLogFile().logWrite(value.isDirty(), value.getBeforeImage(), value);
-                    Database.getLogFile().force();
+                    LogFile log = Database.getLogFile();
+                    long lsn = log.logWrite(value.isDirty(), value.getBeforeImage(), value);
+                    log.flushTo(lsn);
                     dbFile.writePage(value);
+                    log.pageWritten(value.getId(), lsn);
+                    stats.recordWriteback();
                 } catch (IOException e){
                     e.printStackTrace();
                 }
             }
-            head = head.next;
         }
     }
 
@@ -255,18 +1527,15 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void removePage(PageId pid) {
+    public void removePage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        while (head != tail){
-            PageId key = head.key;
-            if (key != null && key.equals(pid)){
-                lruCache.remove(head);
-                return;
-            }
-            head = head.next;
+        // a read-ahead finishing later would cache the copy on disk again
+        awaitReadAhead(pid);
+        Page removed = pageTable.remove(pid);
+        if (removed != null) {
+            releaseFrame(removed);
+            numResident.decrementAndGet();
         }
     }
 
@@ -275,18 +1544,24 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page discardPage = lruCache.get(pid);
+        Page discardPage = pageTable.get(pid, AccessHint.NORMAL);
+        if (discardPage == null) {
+            return;
+        }
         DbFile dbFile = Database.getCatalog().getDatabaseFile(discardPage.getId().getTableId());
         try {
             TransactionId transactionId = discardPage.isDirty();
             if (transactionId != null){
-                Database.getLogFile().logWrite(transactionId, discardPage.getBeforeImage(), discardPage);
-                Database.getLogFile().force();
+                LogFile log = Database.getLogFile();
+                long lsn = log.logWrite(transactionId, discardPage.getBeforeImage(), discardPage);
+                log.flushTo(lsn);
                 discardPage.markDirty(false, null);
                 dbFile.writePage(discardPage);
+                log.pageWritten(pid, lsn);
+                stats.recordWriteback();
             }
         } catch (IOException e){
             e.printStackTrace();
@@ -296,97 +1571,219 @@ public class BufferPool {
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        while (head != tail){
-            Page value = head.value;
-            if (value != null && value.isDirty() != null && value.isDirty().equals(tid)){
-                DbFile dbFile = Database.getCatalog().getDatabaseFile(value.getId().getTableId());
-                try {
-                    Database.getLogFile().logWrite(value.isDirty(), value.getBeforeImage(), value);
-                    Database.getLogFile().force();
-                    value.markDirty(false, null);
-                    dbFile.writePage(value);
-                } catch (IOException e){
-                    e.printStackTrace();
+        writeBack(dirtyPages(tid));
+    }
+
+    /**
+     * Write back the pages of a committing transaction and make their
+     * current contents the before images of the next transaction.
+     */
+    public void newFlushPages(TransactionId tid) throws IOException {
+        List<Page> pages = dirtyPages(tid);
+        writeBack(pages);
+        for (Page page : pages) {
+            page.setBeforeImage();
+        }
+        // pages the cleaner wrote back early are clean but still hold old before images
+        Map<PageId, Page> written = stolen.get(tid);
+        if (written != null) {
+            for (PageId pid : written.keySet()) {
+                Page page = pageTable.peek(pid);
+                if (page != null && page.isDirty() == null) {
+                    page.setBeforeImage();
                 }
             }
-            head = head.next;
         }
     }
 
-    public synchronized void newFlushPages(TransactionId tid) throws IOException {
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        while (head != tail){
-            Page value = head.value;
-            if (value != null && value.isDirty() != null && value.isDirty().equals(tid)){
-                DbFile dbFile = Database.getCatalog().getDatabaseFile(value.getId().getTableId());
-                try {
-                    Database.getLogFile().logWrite(value.isDirty(), value.getBeforeImage(), value);
-                    Database.getLogFile().force();
-                    value.markDirty(false, null);
-                    dbFile.writePage(value);
-                    value.setBeforeImage();
-                } catch (IOException e){
-                    e.printStackTrace();
-                }
+    /**
+     * Write dirty pages back in a batch: the update records of all pages are
+     * logged and the log is flushed once, up to the last of them, then each
+     * file writes its pages in page number order and the log is told they
+     * are on disk, so a commit costs at most one log force whatever the
+     * number of pages it dirtied. In group commit mode the force is shared
+     * with concurrent commits.
+     */
+    private void writeBack(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        long lastLsn = -1;
+        Map<PageId, Long> lsns = new HashMap<>();
+        for (Page page : pages) {
+            lastLsn = log.logWrite(page.isDirty(), page.getBeforeImage(), page);
+            lsns.put(page.getId(), lastLsn);
+        }
+        log.flushTo(lastLsn);
+        Map<Integer, List<Page>> byFile = new TreeMap<>();
+        for (Page page : pages) {
+            byFile.computeIfAbsent(page.getId().getTableId(), k -> new ArrayList<>()).add(page);
+        }
+        for (Map.Entry<Integer, List<Page>> entry : byFile.entrySet()) {
+            List<Page> filePages = entry.getValue();
+            filePages.sort(Comparator.comparingInt(page -> page.getId().getPageNumber()));
+            Database.getCatalog().getDatabaseFile(entry.getKey()).writePages(filePages);
+            for (Page page : filePages) {
+                log.pageWritten(page.getId(), lsns.get(page.getId()));
+                page.markDirty(false, null);
+                stats.recordWriteback();
             }
-            head = head.next;
         }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Pinned pages are never discarded.
+     * <p>
+     * Shards are swept round-robin, each one only under its own monitor, so an
+     * eviction never blocks hits on the other shards.
      */
-    private synchronized void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        Page value = lruCache.getTail().prev.value;
-        if (value != null && value.isDirty() != null){
-            findNotDirty();
-        } else {
-            lruCache.discard();
+        int numShards = pageTable.numShards();
+        int start = Math.floorMod(evictHand.getAndIncrement(), numShards);
+        for (int i = 0; i < numShards; i++) {
+            Page victim = pageTable.evict((start + i) % numShards, page -> page.isDirty() == null);
+            if (victim != null) {
+                stats.recordEviction();
+                releaseFrame(victim);
+                numResident.decrementAndGet();
+                return;
+            }
         }
+        throw new DbException("All pages are dirty or pinned");
     }
 
-    private void findNotDirty() throws DbException{
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        tail = tail.prev;
-        while (head != tail){
-            Page value = tail.value;
-            if (value != null && value.isDirty() == null){
-                lruCache.remove(tail);
-                return;
-            }
-            tail = tail.prev;
+    /**
+     * Run a cleaner pass in the background if dirty pages may fill more than
+     * their share of the pool, unless a pass is already pending.
+     */
+    private void scheduleCleaner() {
+        if (cleanFraction == 0 || numDirtied.get() <= numPages * (1 - cleanFraction)
+                || !cleanerScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            cleanerExecutor.execute(() -> {
+                cleanerScheduled.set(false);
+                int dirty = 0;
+                for (Page page : pageTable.pages()) {
+                    if (page.isDirty() != null) {
+                        dirty++;
+                    }
+                }
+                int excess = dirty - (int) (numPages * (1 - cleanFraction));
+                if (excess > 0) {
+                    try {
+                        cleanPages(excess);
+                    } catch (RuntimeException e) {
+                        // best effort: e.g. the table of a page was dropped since
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            cleanerScheduled.set(false);
         }
-        throw new DbException("All dirty pages");
     }
 
-    private synchronized void rollback(TransactionId tid){
-        LRUCache<PageId, Page>.DLinkedNode head = lruCache.getHead();
-        LRUCache<PageId, Page>.DLinkedNode tail = lruCache.getTail();
-        while (head != tail){
-            Page value = head.value;
-            LRUCache<PageId, Page>.DLinkedNode tmp = head.next;
-            if (value != null && value.isDirty() != null && value.isDirty().equals(tid)){
-                lruCache.remove(head);
-                try {
-                    Page page = Database.getBufferPool().getPage(tid, value.getId(), Permissions.READ_ONLY);
-                    page.markDirty(false, null);
-                } catch (TransactionAbortedException e){
-                    e.printStackTrace();
-                } catch (DbException e){
-                    e.printStackTrace();
+    /**
+     * Write back up to n dirty pages, the least valued first, and leave them
+     * resident and clean so they can be evicted. Pages whose transaction is
+     * in the middle of an update, completing or aborting are skipped. The
+     * pages are logged, the log forced, and the pages written like at commit;
+     * their before images are kept so an abort can put them back on disk.
+     *
+     * @return the number of pages written back
+     */
+    private int cleanPages(int n) {
+        if (cleanFraction == 0) {
+            return 0;
+        }
+        // one pass at a time: a miss waits for a background pass to finish
+        // instead of finding every page it could write locked by that pass
+        synchronized (cleanerMonitor) {
+            return cleanPassLocked(n);
+        }
+    }
+
+    private int cleanPassLocked(int n) {
+        List<PageId> pids = pageTable.pageIdsByValue();
+        List<Page> victims = new ArrayList<>();
+        List<ReentrantLock> held = new ArrayList<>();
+        try {
+            for (int i = pids.size() - 1; i >= 0 && victims.size() < n; i--) {
+                Page page = pageTable.peek(pids.get(i));
+                TransactionId tid = page == null ? null : page.isDirty();
+                // pages with row changes are only written at commit, without the changes still running
+                if (tid == null || pendingRows.containsKey(page.getId())) {
+                    continue;
                 }
+                ReentrantLock updateLock = updateLocks.get(tid);
+                if (updateLock == null || !updateLock.tryLock()) {
+                    continue;
+                }
+                held.add(updateLock);
+                // the transaction may have completed or started to abort before the lock was taken
+                if (updateLocks.get(tid) != updateLock || !tid.equals(page.isDirty())
+                        || aborting.contains(tid)) {
+                    continue;
+                }
+                stolen.computeIfAbsent(tid, k -> new ConcurrentHashMap<>())
+                        .putIfAbsent(page.getId(), page.getBeforeImage());
+                victims.add(page);
+            }
+            writeBack(victims);
+            return victims.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            for (ReentrantLock updateLock : held) {
+                updateLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Put back on disk the before images of the pages the cleaner wrote for
+     * the transaction, and drop the cached copies.
+     */
+    private void restoreStolenPages(TransactionId tid) {
+        Map<PageId, Page> befores = stolen.get(tid);
+        if (befores == null) {
+            return;
+        }
+        for (Page before : befores.values()) {
+            try {
+                Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            removePage(before.getId());
+        }
+        // snapshots read the before images until they are back on disk
+        stolen.remove(tid);
+    }
+
+    private void rollback(TransactionId tid){
+        List<Page> dirty = dirtyPages(tid);
+        restoreStolenPages(tid);
+        for (Page value : dirty) {
+            removePage(value.getId());
+            try {
+                Page page = Database.getBufferPool().getPage(tid, value.getId(), Permissions.READ_ONLY);
+                page.markDirty(false, null);
+            } catch (TransactionAbortedException e){
+                e.printStackTrace();
+            } catch (DbException e){
+                e.printStackTrace();
             }
-            head = tmp;
         }
     }
 
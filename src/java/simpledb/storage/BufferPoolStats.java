@@ -0,0 +1,302 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferPoolStats counts what happens in one BufferPool: hits and misses of
+ * getPage, evictions, dirty page write-backs and read-ahead, to tell how well
+ * the size of the pool fits the workload. The counters are striped, so
+ * recording a hit does not add contention to the hit path.
+ * <p>
+ * The live counters are published as an MXBean; {@link #snapshot()} copies
+ * them for programmatic scraping, and two snapshots can be subtracted to get
+ * the activity of an interval.
+ */
+public class BufferPoolStats implements BufferPoolStatsMXBean {
+
+    /**
+     * Name the stats of the buffer pool of the Database are registered under.
+     */
+    public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    private final BufferPool bufferPool;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder dirtyWritebacks = new LongAdder();
+    private final LongAdder readAheadPages = new LongAdder();
+    private final LongAdder readAheadFailures = new LongAdder();
+
+    BufferPoolStats(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    void recordWriteback() {
+        dirtyWritebacks.increment();
+    }
+
+    void recordReadAhead() {
+        readAheadPages.increment();
+    }
+
+    void recordReadAheadFailure() {
+        readAheadFailures.increment();
+    }
+
+    @Override
+    public int getCapacity() {
+        return bufferPool.getNumPages();
+    }
+
+    @Override
+    public int getResidentPages() {
+        return bufferPool.getNumResidentPages();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return ratio(getHits(), getMisses());
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getDirtyWritebacks() {
+        return dirtyWritebacks.sum();
+    }
+
+    @Override
+    public long getReadAheadPages() {
+        return readAheadPages.sum();
+    }
+
+    @Override
+    public long getReadAheadFailures() {
+        return readAheadFailures.sum();
+    }
+
+    @Override
+    public long getPagesRead() {
+        return IOStats.getPagesRead();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return IOStats.getBytesRead();
+    }
+
+    @Override
+    public long getPagesWritten() {
+        return IOStats.getPagesWritten();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return IOStats.getBytesWritten();
+    }
+
+    @Override
+    public Map<String, Integer> getResidentPagesByTable() {
+        Map<String, Integer> byName = new HashMap<>();
+        for (Map.Entry<Integer, Integer> e : bufferPool.getResidentPagesByTable().entrySet()) {
+            byName.merge(tableName(e.getKey()), e.getValue(), Integer::sum);
+        }
+        return byName;
+    }
+
+    private static String tableName(int tableId) {
+        try {
+            return Database.getCatalog().getTableName(tableId);
+        } catch (NoSuchElementException e) {
+            return String.valueOf(tableId);
+        }
+    }
+
+    private static double ratio(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * @return a copy of the current values of the counters
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(getCapacity(), getResidentPages(), getHits(), getMisses(), getEvictions(),
+                getDirtyWritebacks(), getReadAheadPages(), getReadAheadFailures(), getPagesRead(),
+                getBytesRead(), getPagesWritten(), getBytesWritten(), bufferPool.getResidentPagesByTable());
+    }
+
+    /**
+     * Publish these stats through the platform MBean server under
+     * {@link #OBJECT_NAME}, replacing the stats of a previous buffer pool.
+     */
+    public void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            synchronized (BufferPoolStats.class) {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Snapshot is an immutable copy of the buffer pool counters at one point
+     * in time.
+     */
+    public static class Snapshot {
+        private final int capacity;
+        private final int residentPages;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long dirtyWritebacks;
+        private final long readAheadPages;
+        private final long readAheadFailures;
+        private final long pagesRead;
+        private final long bytesRead;
+        private final long pagesWritten;
+        private final long bytesWritten;
+        private final Map<Integer, Integer> residentPagesByTable;
+
+        Snapshot(int capacity, int residentPages, long hits, long misses, long evictions,
+                 long dirtyWritebacks, long readAheadPages, long readAheadFailures, long pagesRead,
+                 long bytesRead, long pagesWritten, long bytesWritten,
+                 Map<Integer, Integer> residentPagesByTable) {
+            this.capacity = capacity;
+            this.residentPages = residentPages;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.dirtyWritebacks = dirtyWritebacks;
+            this.readAheadPages = readAheadPages;
+            this.readAheadFailures = readAheadFailures;
+            this.pagesRead = pagesRead;
+            this.bytesRead = bytesRead;
+            this.pagesWritten = pagesWritten;
+            this.bytesWritten = bytesWritten;
+            this.residentPagesByTable = Collections.unmodifiableMap(residentPagesByTable);
+        }
+
+        /**
+         * @return the activity between an earlier snapshot and this one; the
+         *         capacity and residency are those of this snapshot
+         */
+        public Snapshot minus(Snapshot earlier) {
+            return new Snapshot(capacity, residentPages, hits - earlier.hits, misses - earlier.misses,
+                    evictions - earlier.evictions, dirtyWritebacks - earlier.dirtyWritebacks,
+                    readAheadPages - earlier.readAheadPages, readAheadFailures - earlier.readAheadFailures,
+                    pagesRead - earlier.pagesRead, bytesRead - earlier.bytesRead,
+                    pagesWritten - earlier.pagesWritten,
+                    bytesWritten - earlier.bytesWritten, residentPagesByTable);
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public int getResidentPages() {
+            return residentPages;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRatio() {
+            return ratio(hits, misses);
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getDirtyWritebacks() {
+            return dirtyWritebacks;
+        }
+
+        public long getReadAheadPages() {
+            return readAheadPages;
+        }
+
+        public long getReadAheadFailures() {
+            return readAheadFailures;
+        }
+
+        public long getPagesRead() {
+            return pagesRead;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getPagesWritten() {
+            return pagesWritten;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * @return the number of resident pages of each table, by table id
+         */
+        public Map<Integer, Integer> getResidentPagesByTable() {
+            return residentPagesByTable;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d pages, %d hits, %d misses (%.1f%% hits), %d evictions, "
+                            + "%d writebacks, %d read ahead, %d failed read-aheads, %d bytes read, "
+                            + "%d bytes written",
+                    residentPages, capacity, hits, misses, getHitRatio() * 100, evictions,
+                    dirtyWritebacks, readAheadPages, readAheadFailures, bytesRead, bytesWritten);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.storage;
+
+import java.util.Map;
+
+/**
+ * Management interface of the buffer pool metrics, published through the
+ * platform MBean server under {@link BufferPoolStats#OBJECT_NAME}. Counters
+ * are cumulative since the buffer pool was created; I/O counters cover all
+ * database files of the process.
+ */
+public interface BufferPoolStatsMXBean {
+
+    /**
+     * @return the maximum number of pages of the pool
+     */
+    int getCapacity();
+
+    /**
+     * @return the number of pages currently in the pool
+     */
+    int getResidentPages();
+
+    /**
+     * @return the number of page requests served from the pool
+     */
+    long getHits();
+
+    /**
+     * @return the number of page requests that had to read the page
+     */
+    long getMisses();
+
+    /**
+     * @return hits / (hits + misses), or 0 if no page was requested yet
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of pages evicted to make room for others
+     */
+    long getEvictions();
+
+    /**
+     * @return the number of dirty pages written back to disk
+     */
+    long getDirtyWritebacks();
+
+    /**
+     * @return the number of pages loaded by read-ahead
+     */
+    long getReadAheadPages();
+
+    /**
+     * @return the number of pages read-ahead failed to load, e.g. because
+     *         they were no longer in their file
+     */
+    long getReadAheadFailures();
+
+    long getPagesRead();
+
+    long getBytesRead();
+
+    long getPagesWritten();
+
+    long getBytesWritten();
+
+    /**
+     * @return the number of resident pages of each table, by table name
+     */
+    Map<String, Integer> getResidentPagesByTable();
+}
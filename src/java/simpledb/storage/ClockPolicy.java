@@ -0,0 +1,100 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy implements CLOCK (second chance) replacement. A hit only sets
+ * the reference bit of the frame, without any lock, so reading a hot page
+ * costs nothing beyond the page table lookup. Frames sit on a circular list
+ * swept by a hand: a referenced frame gets its bit cleared and a second
+ * chance, the first unreferenced evictable frame is the victim. Accesses of
+ * a sequential scan never set the bit.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    /**
+     * The frame the hand points to, or null if the shard is empty.
+     */
+    private Frame hand;
+    private int size;
+
+    public ClockPolicy(int capacity) {
+    }
+
+    @Override
+    public synchronized void frameAdded(Frame frame, AccessHint hint) {
+        // pages streamed by a scan start without their second chance
+        frame.referenced = hint != AccessHint.SEQUENTIAL;
+        if (hand == null) {
+            frame.prev = frame;
+            frame.next = frame;
+            hand = frame;
+        } else {
+            // insert just behind the hand so the new frame is swept last
+            frame.next = hand;
+            frame.prev = hand.prev;
+            hand.prev.next = frame;
+            hand.prev = frame;
+        }
+        size++;
+    }
+
+    @Override
+    public void frameAccessed(Frame frame, AccessHint hint) {
+        if (hint != AccessHint.SEQUENTIAL) {
+            frame.referenced = true;
+        }
+    }
+
+    @Override
+    public synchronized void frameRemoved(Frame frame) {
+        if (frame.next == frame) {
+            hand = null;
+        } else {
+            if (hand == frame) {
+                hand = frame.next;
+            }
+            frame.prev.next = frame.next;
+            frame.next.prev = frame.prev;
+        }
+        frame.prev = null;
+        frame.next = null;
+        size--;
+    }
+
+    @Override
+    public synchronized Frame chooseVictim(Predicate<Frame> evictable) {
+        // two full turns clear every reference bit, a third finds nothing new
+        for (int i = 0; hand != null && i < 2 * size + 1; i++) {
+            Frame frame = hand;
+            hand = hand.next;
+            if (!evictable.test(frame)) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+            } else {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized List<Frame> frames() {
+        List<Frame> referenced = new ArrayList<>(size);
+        List<Frame> unreferenced = new ArrayList<>();
+        if (hand != null) {
+            // the frames just behind the hand were swept least recently
+            Frame frame = hand.prev;
+            do {
+                (frame.referenced ? referenced : unreferenced).add(frame);
+                frame = frame.prev;
+            } while (frame != hand.prev);
+        }
+        referenced.addAll(unreferenced);
+        return referenced;
+    }
+}
@@ -6,6 +6,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -23,6 +24,20 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Read the specified page from disk into the given page-sized frame and
+     * return a page that is a view over it. Files whose pages cannot be views
+     * over a buffer ignore the frame and read the page like
+     * {@link #readPage(PageId)}.
+     *
+     * @param id    the page to read
+     * @param frame the buffer to read the page into
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    default Page readPage(PageId id, ByteBuffer frame) {
+        return readPage(id);
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -31,6 +46,20 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk. Files that can write several pages
+     * with one I/O override this; by default the pages are written one at a
+     * time with {@link #writePage(Page)}.
+     *
+     * @param pages the pages to write, all of this file, sorted by page number
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
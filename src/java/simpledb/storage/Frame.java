@@ -0,0 +1,59 @@
+package simpledb.storage;
+
+/**
+ * Frame is one slot of the BufferPool page table: a resident page together
+ * with the bookkeeping the ReplacementPolicy of its shard keeps about it.
+ *
+ * @see ReplacementPolicy
+ * @see PageTable
+ */
+public class Frame {
+
+    private final PageId pid;
+
+    volatile Page page;
+
+    /**
+     * Reference bit, set on every hit by policies that do not keep an
+     * ordered list (see ClockPolicy). Written without any lock.
+     */
+    volatile boolean referenced;
+
+    /**
+     * Links of the intrusive list kept by the policy of the shard, and the
+     * list the frame is on for policies that keep several. Only touched while
+     * holding the monitor of that policy.
+     */
+    Frame prev;
+    Frame next;
+    int queue;
+
+    /**
+     * Number of pins held on the frame; a pinned frame is never chosen as a
+     * victim. Guarded by the monitor of the shard of the PageTable.
+     */
+    int pins;
+
+    public Frame(Page page) {
+        this(page.getId(), page);
+    }
+
+    Frame(PageId pid, Page page) {
+        this.pid = pid;
+        this.page = page;
+    }
+
+    /**
+     * @return the id of the page held by this frame
+     */
+    public PageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the page held by this frame
+     */
+    public Page getPage() {
+        return page;
+    }
+}
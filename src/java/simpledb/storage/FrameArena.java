@@ -0,0 +1,113 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * FrameArena is a fixed off-heap memory region preallocated by the
+ * BufferPool and split into page-sized frames. Pages are read from disk
+ * straight into a frame and used as views over it, so cached page data lives
+ * outside the Java heap and a miss allocates nothing for the page bytes.
+ * <p>
+ * The region is allocated as direct ByteBuffers of at most 1 GB each, so the
+ * arena may be larger than a single ByteBuffer can address, and it grows by
+ * allocating more of them.
+ */
+class FrameArena {
+
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final ConcurrentLinkedDeque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Number of frames the arena should hold, and number it holds, free or
+     * handed out. They differ after a shrink while handed out frames beyond
+     * the target have not been released yet.
+     */
+    private int targetFrames;
+    private int numFrames;
+
+    /**
+     * @param numFrames number of frames of the arena
+     * @param frameSize size of each frame in bytes, the page size
+     */
+    FrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        resize(numFrames);
+    }
+
+    /**
+     * @return the size of each frame in bytes
+     */
+    int frameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return the number of frames of the arena, free or handed out
+     */
+    synchronized int numFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return the number of frames not handed out
+     */
+    int numFree() {
+        return free.size();
+    }
+
+    /**
+     * Grow or shrink the arena. Growing allocates a new region for the extra
+     * frames at once. Shrinking drops free frames at once and handed out ones
+     * as they are released; the memory of a region is given back to the
+     * system once none of its frames is referenced anymore.
+     *
+     * @param frames the new number of frames
+     */
+    synchronized void resize(int frames) {
+        targetFrames = frames;
+        int framesPerChunk = Math.max(1, MAX_CHUNK_BYTES / frameSize);
+        while (numFrames < targetFrames) {
+            int n = Math.min(framesPerChunk, targetFrames - numFrames);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(n * frameSize);
+            for (int i = 0; i < n; i++) {
+                chunk.limit((i + 1) * frameSize);
+                chunk.position(i * frameSize);
+                free.push(chunk.slice());
+            }
+            numFrames += n;
+        }
+        while (numFrames > targetFrames && free.poll() != null) {
+            numFrames--;
+        }
+    }
+
+    /**
+     * Hand out a free frame, zeroed position and full limit.
+     *
+     * @return the frame, or null if every frame is in use
+     */
+    ByteBuffer allocate() {
+        ByteBuffer frame = free.poll();
+        if (frame != null) {
+            frame.clear();
+        }
+        return frame;
+    }
+
+    /**
+     * Give back a frame handed out by {@link #allocate()}. The caller must not
+     * touch it anymore.
+     */
+    void release(ByteBuffer frame) {
+        synchronized (this) {
+            if (numFrames > targetFrames) {
+                numFrames--;
+                return;
+            }
+        }
+        free.push(frame);
+    }
+}
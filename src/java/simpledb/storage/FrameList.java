@@ -0,0 +1,66 @@
+package simpledb.storage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * FrameList is an intrusive doubly linked list of frames, threaded through
+ * Frame.prev and Frame.next, with the most recently added frame at the head.
+ * It is not thread safe; the replacement policy owning it synchronizes.
+ */
+class FrameList {
+
+    private final Frame head = new Frame(null, null);
+    private int size;
+
+    FrameList() {
+        head.prev = head;
+        head.next = head;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void addToHead(Frame frame) {
+        frame.prev = head;
+        frame.next = head.next;
+        head.next.prev = frame;
+        head.next = frame;
+        size++;
+    }
+
+    void remove(Frame frame) {
+        frame.prev.next = frame.next;
+        frame.next.prev = frame.prev;
+        frame.prev = null;
+        frame.next = null;
+        size--;
+    }
+
+    void moveToHead(Frame frame) {
+        remove(frame);
+        addToHead(frame);
+    }
+
+    /**
+     * @return the frame closest to the tail accepted by the predicate, or null
+     */
+    Frame lastMatching(Predicate<Frame> predicate) {
+        for (Frame frame = head.prev; frame != head; frame = frame.prev) {
+            if (predicate.test(frame)) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Append the frames of this list to the given one, head first.
+     */
+    void addTo(List<Frame> frames) {
+        for (Frame frame = head.next; frame != head; frame = frame.next) {
+            frames.add(frame);
+        }
+    }
+}
@@ -9,7 +9,11 @@ import simpledb.transaction.TransactionId;
 
 import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -40,6 +44,14 @@ public class HeapFile implements DbFile {
         BufferPool bufferPool = Database.getBufferPool();
         Iterator<Tuple> iterator;
         int num = 0;
+        /**
+         * The page the iterator is walking, pinned in the buffer pool.
+         */
+        HeapPageId current;
+        /**
+         * Last page the iterator has asked the buffer pool to read ahead.
+         */
+        int readAheadUntil = 0;
 
         public MyIterator(TransactionId tid, Permissions permissions){
             this.tid = tid;
@@ -48,12 +60,15 @@ public class HeapFile implements DbFile {
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            unpin();
             num = 0;
+            readAheadUntil = 0;
             HeapPageId heapPageId = new HeapPageId(getId(), num);
-            HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, heapPageId, permissions);
+            HeapPage heapPage = (HeapPage) bufferPool.pinPage(tid, heapPageId, permissions, AccessHint.SEQUENTIAL);
             if (heapPage == null){
                 throw new DbException("null");
             } else {
+                current = heapPageId;
                 iterator = heapPage.iterator();
             }
         }
@@ -72,15 +87,19 @@ public class HeapFile implements DbFile {
 
         private boolean nextPage() throws DbException, TransactionAbortedException {
             while(true){
+                // leaving the current page, so it may be evicted again
+                unpin();
                 num++;
                 if (num >= numPages()){
                     return false;
                 }
+                readAhead();
                 HeapPageId heapPageId = new HeapPageId(getId(), num);
-                HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, heapPageId, permissions);
+                HeapPage heapPage = (HeapPage) bufferPool.pinPage(tid, heapPageId, permissions, AccessHint.SEQUENTIAL);
                 if (heapPage == null){
                     continue;
                 }
+                current = heapPageId;
                 iterator = heapPage.iterator();
                 if (iterator.hasNext()) {
                     return true;
@@ -88,6 +107,32 @@ public class HeapFile implements DbFile {
             }
         }
 
+        /**
+         * Once the scan has moved past its first page it is sequential, so
+         * keep the next pages being read in the background. A new batch is
+         * requested when half of the previous one has been consumed.
+         */
+        private void readAhead() {
+            int distance = bufferPool.getReadAheadPages();
+            if (distance <= 0 || readAheadUntil >= num + distance / 2) {
+                return;
+            }
+            int until = Math.min(numPages() - 1, num + distance);
+            List<HeapPageId> pids = new ArrayList<>();
+            for (int p = Math.max(readAheadUntil, num) + 1; p <= until; p++) {
+                pids.add(new HeapPageId(getId(), p));
+            }
+            bufferPool.readAhead(pids);
+            readAheadUntil = until;
+        }
+
+        private void unpin() {
+            if (current != null) {
+                bufferPool.unpinPage(tid, current);
+                current = null;
+            }
+        }
+
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
             if (iterator == null){
@@ -103,6 +148,7 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
+            unpin();
             iterator = null;
         }
     }
@@ -157,39 +203,81 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        FileInputStream fileInputStream = null;
-        HeapPage heapPage = null;
+        return readPage(pid, ByteBuffer.allocate(BufferPool.getPageSize()));
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid, ByteBuffer frame) {
         int size = BufferPool.getPageSize();
-        byte[] buff = new byte[size];
-        try {
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
-            randomAccessFile.seek((long) pid.getPageNumber() * size);
-            if (randomAccessFile.read(buff) == -1){
-                return null;
+        long position = (long) pid.getPageNumber() * size;
+        frame.clear();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (frame.hasRemaining()) {
+                if (channel.read(frame, position + frame.position()) == -1) {
+                    break;
+                }
             }
-            heapPage = new HeapPage((HeapPageId) pid, buff);
-            randomAccessFile.close();
-        } catch (Exception e) {
+        } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        }
+        if (frame.position() == 0) {
+            return null;
         }
-        return heapPage;
+        IOStats.recordRead(size);
+        // a short read at the end of the file leaves the rest of the page empty
+        while (frame.hasRemaining()) {
+            frame.put((byte) 0);
+        }
+        frame.clear();
+        return new HeapPage((HeapPageId) pid, frame);
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        HeapPageId id = (HeapPageId) page.getId();
+        writePages(Collections.singletonList(page));
+    }
+
+    /**
+     * Write the pages through one channel. Runs of consecutive pages are
+     * written with a single gathering write, other pages with positional
+     * writes, so the file is written in offset order without seeking back.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
         int size = BufferPool.getPageSize();
-        int pageNumber = id.getPageNumber();
-        byte[] data = page.getPageData();
-        try {
-            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-            randomAccessFile.seek((long) pageNumber * size);
-            randomAccessFile.write(data);
-            randomAccessFile.close();
-        } catch (Exception e){
-            e.printStackTrace();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            int start = 0;
+            while (start < pages.size()) {
+                int end = start + 1;
+                while (end < pages.size() && pages.get(end).getId().getPageNumber()
+                        == pages.get(end - 1).getId().getPageNumber() + 1) {
+                    end++;
+                }
+                ByteBuffer[] run = new ByteBuffer[end - start];
+                for (int i = start; i < end; i++) {
+                    run[i - start] = ByteBuffer.wrap(pages.get(i).getPageData());
+                }
+                long position = (long) pages.get(start).getId().getPageNumber() * size;
+                if (run.length == 1) {
+                    while (run[0].hasRemaining()) {
+                        channel.write(run[0], position + run[0].position());
+                    }
+                } else {
+                    channel.position(position);
+                    long remaining = (long) run.length * size;
+                    while (remaining > 0) {
+                        remaining -= channel.write(run);
+                    }
+                }
+                for (int i = start; i < end; i++) {
+                    IOStats.recordWrite(size);
+                }
+                start = end;
+            }
         }
     }
 
@@ -225,10 +313,12 @@ public class HeapFile implements DbFile {
             res.add(page);
             return res;
         }
+        // the new page goes to disk empty, the tuple only reaches it at commit
         heapPageId = new HeapPageId(getId(), i);
-        page = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
+        writePage(new HeapPage(heapPageId, HeapPage.createEmptyPageData()));
+        page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
         page.insertTuple(t);
-        writePage(page);
+        page.markDirty(true, tid);
         res.add(page);
         return res;
     }
@@ -4,13 +4,16 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -19,16 +22,31 @@ import java.util.NoSuchElementException;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements SlottedPage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
+    final int headerSize;
+
+    /**
+     * The bytes of the page: the header bits followed by the tuple slots.
+     * Tuples are decoded from it on demand and written straight into it, so
+     * the page keeps no Tuple objects of its own. It is either a private heap
+     * buffer or a frame of the off-heap arena of the BufferPool.
+     */
+    private volatile ByteBuffer data;
+
+    /**
+     * Guards the frame behind {@link #data}: every read or write of the
+     * page data holds the read lock, and {@link #detach()} the write lock,
+     * so a frame is never handed back to the arena in the middle of an
+     * access, and a write finishing first is carried over to the copy.
+     */
+    private final ReentrantReadWriteLock frameLock = new ReentrantReadWriteLock();
 
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
 
     private Boolean dirty;
     private TransactionId tid;
@@ -51,28 +69,60 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, copyOf(data));
+    }
+
+    /**
+     * Create a HeapPage that is a view over a page-sized buffer holding the
+     * page as read from disk. The page reads and writes the buffer in place,
+     * so the caller must not reuse the buffer while the page is in use.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
+        this.headerSize = getHeaderSize();
         this.dirty = false;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
+
+        setBeforeImage();
+    }
+
+    private static ByteBuffer copyOf(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(BufferPool.getPageSize());
+        buffer.put(data, 0, Math.min(data.length, buffer.capacity()));
+        buffer.clear();
+        return buffer;
+    }
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+    /**
+     * @return true if the page is a view over the given buffer
+     */
+    boolean isViewOf(ByteBuffer frame) {
+        return data == frame;
+    }
 
-        tuples = new Tuple[numSlots];
+    /**
+     * Move the page out of its off-heap frame into a private heap buffer, so
+     * the frame can be reused while the page object is still referenced.
+     *
+     * @return the frame the page was a view over, or null if the page was
+     *         not backed by an off-heap frame
+     */
+    ByteBuffer detach() {
+        frameLock.writeLock().lock();
         try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+            ByteBuffer frame = data;
+            if (!frame.isDirect()) {
+                return null;
+            }
+            data = copyOf(getPageData());
+            return frame;
+        } finally {
+            frameLock.writeLock().unlock();
         }
-        dis.close();
-
-        setBeforeImage();
     }
 
     /**
@@ -120,6 +170,16 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Make the given contents the before image of the page, for pages whose
+     * current contents include changes that are not committed yet.
+     */
+    void setBeforeImage(byte[] before) {
+        synchronized (oldDataLock) {
+            oldData = before.clone();
+        }
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -129,37 +189,56 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of the given slot in the page data
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
+    /**
+     * Decode the tuple stored in a used slot.
+     */
+    private Tuple readTuple(ByteBuffer buffer, int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = slotOffset(slotId);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.INT_TYPE) {
+                t.setField(j, new IntField(buffer.getInt(offset)));
+            } else {
+                int strLen = buffer.getInt(offset);
+                byte[] bs = new byte[strLen];
+                for (int k = 0; k < strLen; k++) {
+                    bs[k] = buffer.get(offset + 4 + k);
                 }
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
             }
-            return null;
+            offset += type.getLen();
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /**
+     * Encode a tuple into a slot, in the format read by {@link Type#parse}.
+     */
+    private void writeTuple(ByteBuffer buffer, int slotId, Tuple t) {
+        int offset = slotOffset(slotId);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            Field f = t.getField(j);
+            if (type == Type.INT_TYPE) {
+                buffer.putInt(offset, ((IntField) f).getValue());
+            } else {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buffer.putInt(offset, len);
+                for (int k = 0; k < Type.STRING_LEN; k++) {
+                    buffer.put(offset + 4 + k, k < len ? (byte) s.charAt(k) : 0);
+                }
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            offset += type.getLen();
         }
-
-        return t;
     }
 
     /**
@@ -174,64 +253,16 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
+        frameLock.readLock().lock();
         try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+            ByteBuffer buffer = data.duplicate();
+            buffer.clear();
+            byte[] bytes = new byte[BufferPool.getPageSize()];
+            buffer.get(bytes, 0, Math.min(bytes.length, buffer.remaining()));
+            return bytes;
+        } finally {
+            frameLock.readLock().unlock();
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -261,15 +292,71 @@ public class HeapPage implements Page {
         // not necessary for lab1
         RecordId recordId = t.getRecordId();
         HeapPageId pageId = (HeapPageId) recordId.getPageId();
-        int tn = recordId.getTupleNumber();
         if(!pageId.equals(this.pid)){
             throw new DbException("Page Id does not match");
         }
-        if(!isSlotUsed(tn)){
-            throw new DbException("Slot is not used");
+        deleteTuple(recordId.getTupleNumber());
+    }
+
+    /**
+     * Delete the tuple in the given slot.
+     *
+     * @throws DbException if the slot is empty
+     */
+    void deleteTuple(int slot) throws DbException {
+        frameLock.readLock().lock();
+        try {
+            if(!slotUsed(slot)){
+                throw new DbException("Slot is not used");
+            }
+            clearSlot(slot);
+        } finally {
+            frameLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    @Override
+    public int getHeaderOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getSlotSize() {
+        return td.getSize();
+    }
+
+    @Override
+    public void putSlot(int slot, byte[] tuple) {
+        frameLock.readLock().lock();
+        try {
+            ByteBuffer buffer = data;
+            int offset = slotOffset(slot);
+            for (int i = 0; i < tuple.length; i++) {
+                buffer.put(offset + i, tuple[i]);
+            }
+            markSlotUsed(slot, true);
+        } finally {
+            frameLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clearSlot(int slot) {
+        frameLock.readLock().lock();
+        try {
+            markSlotUsed(slot, false);
+            ByteBuffer buffer = data;
+            for (int i = slotOffset(slot); i < slotOffset(slot + 1); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        } finally {
+            frameLock.readLock().unlock();
         }
-        markSlotUsed(tn, false);
-        this.tuples[tn] = null;
     }
 
     /**
@@ -281,21 +368,58 @@ public class HeapPage implements Page {
      *                     is mismatch.
      */
     public void insertTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
-        if (getNumUnusedSlots() == 0){
-            throw new DbException("full");
-        }
-        for (int i=0; i<getNumTuples(); i++){
-            if (tuples[i] != null && !t.getTupleDesc().equals(tuples[i].getTupleDesc())){
+        frameLock.readLock().lock();
+        try {
+            // some code goes here
+            // not necessary for lab1
+            if (getNumUnusedSlots() == 0){
+                throw new DbException("full");
+            }
+            if (!t.getTupleDesc().equals(td)){
                 throw new DbException("mismatch");
             }
-            if(!isSlotUsed(i)){
-                tuples[i] = t;
-                tuples[i].setRecordId(new RecordId(getId(), i));
-                markSlotUsed(i, true);
-                return;
+            for (int i=0; i<numSlots; i++){
+                if(!slotUsed(i)){
+                    insertTuple(t, i);
+                    return;
+                }
+            }
+        } finally {
+            frameLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the tuple to the given empty slot, and updates its RecordId.
+     *
+     * @throws DbException if the slot is used or tupledesc is mismatch
+     */
+    void insertTuple(Tuple t, int slot) throws DbException {
+        frameLock.readLock().lock();
+        try {
+            if (slotUsed(slot)){
+                throw new DbException("Slot is used");
+            }
+            if (!t.getTupleDesc().equals(td)){
+                throw new DbException("mismatch");
             }
+            writeTuple(data, slot, t);
+            t.setRecordId(new RecordId(getId(), slot));
+            markSlotUsed(slot, true);
+        } finally {
+            frameLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the tuple in the given slot, or null if the slot is empty
+     */
+    Tuple getTuple(int slot) {
+        frameLock.readLock().lock();
+        try {
+            return slotUsed(slot) ? readTuple(data, slot) : null;
+        } finally {
+            frameLock.readLock().unlock();
         }
     }
 
@@ -326,23 +450,37 @@ public class HeapPage implements Page {
      * Returns the number of unused (i.e., empty) slots on this page.
      */
     public int getNumUnusedSlots() {
-        // some code goes here
-        int res = 0;
-        for (int i=0; i<numSlots; i++){
-            if((header[i/8] >> (i%8) & 1) == 0) res++;
+        frameLock.readLock().lock();
+        try {
+            // some code goes here
+            int res = 0;
+            for (int i=0; i<numSlots; i++){
+                if(!slotUsed(i)) res++;
+            }
+            return res;
+        } finally {
+            frameLock.readLock().unlock();
         }
-        return res;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
+        frameLock.readLock().lock();
+        try {
+            return slotUsed(i);
+        } finally {
+            frameLock.readLock().unlock();
+        }
+    }
+
+    private boolean slotUsed(int i) {
         // some code goes here
         int index = i/8;
         int offset = i%8;
         int tmp = 1 << (offset);
-        byte b = header[index];
+        byte b = data.get(index);
         int res = ((b & tmp) >>> (offset));
         return res == 1;
     }
@@ -356,8 +494,9 @@ public class HeapPage implements Page {
         int index = i/8;
         int offset = i%8;
         int tmp = 1 << (offset);
-        byte b = header[index];
-        header[index] = value ? (byte) (b | tmp) : (byte) (b & ~tmp);
+        ByteBuffer buffer = data;
+        byte b = buffer.get(index);
+        buffer.put(index, value ? (byte) (b | tmp) : (byte) (b & ~tmp));
     }
 
     /**
@@ -365,15 +504,20 @@ public class HeapPage implements Page {
      *         (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        // some code goes here
-        List<Tuple> tupleList = new ArrayList<>();
-        int num = getNumTuples();
-        for (int i=0; i<num; i++){
-            if(isSlotUsed(i)){
-                tupleList.add(this.tuples[i]);
+        frameLock.readLock().lock();
+        try {
+            // some code goes here
+            List<Tuple> tupleList = new ArrayList<>();
+            ByteBuffer buffer = data;
+            for (int i=0; i<numSlots; i++){
+                if(slotUsed(i)){
+                    tupleList.add(readTuple(buffer, i));
+                }
             }
+            return tupleList.iterator();
+        } finally {
+            frameLock.readLock().unlock();
         }
-        return tupleList.iterator();
     }
 
 }
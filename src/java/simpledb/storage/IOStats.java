@@ -0,0 +1,54 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * IOStats counts the pages and bytes database files read from and write to
+ * disk, across all files of the process. Files report each page they read or
+ * write; the counters are striped so concurrent readers do not contend on
+ * them.
+ *
+ * @see BufferPoolStats
+ */
+public final class IOStats {
+
+    private static final LongAdder pagesRead = new LongAdder();
+    private static final LongAdder bytesRead = new LongAdder();
+    private static final LongAdder pagesWritten = new LongAdder();
+    private static final LongAdder bytesWritten = new LongAdder();
+
+    private IOStats() {
+    }
+
+    /**
+     * Record that a page of the given size was read from disk.
+     */
+    public static void recordRead(int bytes) {
+        pagesRead.increment();
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Record that a page of the given size was written to disk.
+     */
+    public static void recordWrite(int bytes) {
+        pagesWritten.increment();
+        bytesWritten.add(bytes);
+    }
+
+    public static long getPagesRead() {
+        return pagesRead.sum();
+    }
+
+    public static long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public static long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+
+    public static long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * LRUPolicy evicts the least recently used page of the shard. Frames are kept
+ * in an intrusive doubly linked list, most recently used at the head.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    private final FrameList frames = new FrameList();
+
+    public LRUPolicy(int capacity) {
+    }
+
+    @Override
+    public synchronized void frameAdded(Frame frame, AccessHint hint) {
+        frames.addToHead(frame);
+    }
+
+    @Override
+    public synchronized void frameAccessed(Frame frame, AccessHint hint) {
+        // the frame may have been evicted since the caller looked it up
+        if (frame.next != null) {
+            frames.moveToHead(frame);
+        }
+    }
+
+    @Override
+    public synchronized void frameRemoved(Frame frame) {
+        frames.remove(frame);
+    }
+
+    @Override
+    public synchronized Frame chooseVictim(Predicate<Frame> evictable) {
+        return frames.lastMatching(evictable);
+    }
+
+    @Override
+    public synchronized List<Frame> frames() {
+        List<Frame> result = new ArrayList<>(frames.size());
+        frames.addTo(result);
+        return result;
+    }
+}
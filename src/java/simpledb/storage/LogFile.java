@@ -2,15 +2,28 @@ package simpledb.storage;
 
 import simpledb.common.Database;
 import simpledb.common.Debug;
+import simpledb.index.BTreeFile;
 import simpledb.transaction.TransactionId;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -25,7 +38,7 @@ Many of the methods here are synchronized (to prevent concurrent log
 writes from happening); many of the methods in BufferPool are also
 synchronized (for similar reasons.)  Problem is that BufferPool writes
 log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
+pages (on rollback and recovery.)  This can lead to deadlock.  For
 that reason, any LogFile operation that needs to access the BufferPool
 must not be declared synchronized and must begin with a block like:
 
@@ -39,6 +52,15 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+<p>
+
+In group commit mode logCommit and forceAppended append under this, then
+wait for the force without holding it; the leader of a group only takes
+this briefly, to read what it is about to force.
+
+Checkpoints are fuzzy and do not touch the BufferPool; logCheckpoint
+only takes this while it appends the checkpoint record and updates the
+header, and checkpoints are serialized by their own lock.
 */
 
 /**
@@ -58,8 +80,8 @@ must not be declared synchronized and must begin with a block like:
  * <li> Each log record ends with a long integer file offset representing
  * the position in the log file where the record began.
  *
- * <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- * CHECKPOINT
+ * <li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+ * CHECKPOINT, and TUPLE
  *
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  *
@@ -68,13 +90,31 @@ must not be declared synchronized and must begin with a block like:
  * accessed with the LogFile.readPageData() and LogFile.writePageData()
  * methods.  See LogFile.print() for an example.
  *
+ * <li> TUPLE records log a write to a {@link SlottedPage} as the slots it
+ * filled and cleared: the page id, then the number of changes and for each
+ * an op byte (0 delete, 1 insert), the slot, and the tuple length and
+ * bytes. See {@link TupleDelta}. A write is logged as a TUPLE record when
+ * the changes reproduce the page and take less space than the two images,
+ * and as an UPDATE record otherwise.
+ *
  * <li> CHECKPOINT records consist of active transactions at the time
- * the checkpoint was taken and their first log record on disk.  The format
- * of the record is an integer count of the number of transactions, as well
- * as a long integer transaction id and a long integer first record offset
- * for each active transaction.
+ * the checkpoint was taken and their first log record on disk, and of the
+ * dirty page table: the pages with logged writes that were not on disk
+ * yet, and the first such record of each.  The format of the record is an
+ * integer count of the number of transactions, as well as a long integer
+ * transaction id and a long integer first record offset for each active
+ * transaction, then an integer count of the number of dirty pages, and a
+ * page id (as in LogFile.writePageData()) and a long integer record offset
+ * for each of them.
  *
  * </ul>
+ *
+ * <p> Records are serialized into an in-memory log buffer, which is
+ * written to the file when it is full, when the log is forced, and before
+ * the log file is read. Each record has a log sequence number (LSN): its
+ * offset in the log counted from the first record ever written, so LSNs
+ * keep growing when the log is truncated. {@link #flushTo(long)} makes the
+ * log durable up to a record, and does nothing if it already is.
  */
 public class LogFile {
 
@@ -87,17 +127,128 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int TUPLE_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
     long currentOffset = -1;//protected by this
+
+    /**
+     * Size of the log buffer; it grows to hold a longer field, e.g. the
+     * data of a larger page.
+     */
+    public static final int LOG_BUFFER_SIZE = 64 * 1024;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(LOG_BUFFER_SIZE); // protected by this
+    private long bufferOffset = -1; // file offset buffer[0] goes to, protected by this
+    private long lsnBase = 0; // LSN of file offset 0, protected by this
+    private final Map<String, byte[]> utfCache = new HashMap<>(); // protected by this
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
 
+    /**
+     * The page data each running transaction last logged for a page, which
+     * is what is on disk once the write is done, so the next TUPLE record
+     * for the page is computed against it rather than the before image,
+     * which predates the write. Protected by this.
+     */
+    private final Map<Long, Map<PageId, byte[]>> loggedImages = new HashMap<>();
+
+    /**
+     * The dirty page table: for each page with logged writes that may not
+     * be on disk yet, the LSN of the first of them (its recLSN) and of the
+     * last. Protected by this.
+     *
+     * @see #pageWritten(PageId, long)
+     */
+    private final Map<PageId, long[]> dirtyPages = new HashMap<>();
+
+    private final Object checkpointLock = new Object();
+
+    /**
+     * A logged write to a page, which recovery can redo or undo.
+     */
+    interface Update {
+        PageId getPageId();
+
+        /**
+         * @param page the page to apply the write to, as read from disk; it
+         *             may be changed in place
+         * @return the page with the write applied
+         */
+        Page redo(Page page) throws IOException;
+
+        /**
+         * @param page the page to take the write out of, as read from disk;
+         *             it may be changed in place
+         * @return the page without the write
+         */
+        Page undo(Page page) throws IOException;
+    }
+
+    /**
+     * The write of an UPDATE record.
+     */
+    private static class PageImages implements Update {
+        private final Page before;
+        private final Page after;
+
+        PageImages(Page before, Page after) {
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public PageId getPageId() {
+            return after.getId();
+        }
+
+        @Override
+        public Page redo(Page page) {
+            return after;
+        }
+
+        @Override
+        public Page undo(Page page) {
+            return before;
+        }
+    }
+
+    /**
+     * Default time a group commit leader waits for other commits to join its
+     * force, in µs.
+     */
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW_US = 1000;
+
+    /**
+     * Default number of commits that make a group commit leader force at
+     * once, without waiting for the rest of the window.
+     */
+    public static final int DEFAULT_GROUP_COMMIT_SIZE = 16;
+
+    /**
+     * Guards the group commit state below. Never held while waiting for this.
+     */
+    private final Object groupMonitor = new Object();
+    private volatile long forcedLsn = 0; // the log before this LSN is on disk; written under groupMonitor
+    private boolean forcing = false; // a leader is gathering or forcing a batch
+    private int pendingForces = 0; // callers waiting for the next force
+
+    private volatile boolean groupCommit = false;
+    private volatile long groupCommitWindowUs = DEFAULT_GROUP_COMMIT_WINDOW_US;
+    private volatile int groupCommitSize = DEFAULT_GROUP_COMMIT_SIZE;
+
+    private final LongAdder forces = new LongAdder();
+
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+    private final LongAdder replayedRecords = new LongAdder();
+    private final LongAdder skippedRecords = new LongAdder();
+    private final LongAdder recoveryPageWrites = new LongAdder();
+
     /**
      * Constructor.
      * Initialize and back the log file with the specified file.
@@ -126,6 +277,15 @@ public class LogFile {
         // may not match tableids in the current catalog.
     }
 
+    /**
+     * @return the file, next to the log, that records the pages resident in
+     *         the buffer pool at shutdown
+     * @see BufferPool#warmUp(File)
+     */
+    public File getWarmUpFile() {
+        return new File(logFile.getPath() + ".warmup");
+    }
+
     // we're about to append a log record. if we weren't sure whether the
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
@@ -138,7 +298,86 @@ public class LogFile {
             raf.writeLong(NO_CHECKPOINT_ID);
             raf.seek(raf.length());
             currentOffset = raf.getFilePointer();
+            bufferOffset = currentOffset;
+            buffer.clear();
+        }
+    }
+
+    /**
+     * @return the file offset the next record will start at
+     */
+    private long offset() {
+        return bufferOffset + buffer.position();
+    }
+
+    /**
+     * @return the LSN the next record will get; every record before it has
+     *         a smaller one
+     */
+    public synchronized long getEndLsn() {
+        return lsnBase + Math.max(0, currentOffset);
+    }
+
+    /**
+     * @return the LSN up to which the log is on disk: every record with a
+     *         smaller LSN is durable
+     */
+    public long getFlushedLsn() {
+        return forcedLsn;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flushBuffer();
+        }
+    }
+
+    private void putInt(int v) throws IOException {
+        ensure(INT_SIZE);
+        buffer.putInt(v);
+    }
+
+    private void putLong(long v) throws IOException {
+        ensure(LONG_SIZE);
+        buffer.putLong(v);
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.capacity()) {
+            flushBuffer();
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(bytes.length) << 1);
         }
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Append a string the way {@link RandomAccessFile#writeUTF} writes it.
+     */
+    private void putUTF(String s) throws IOException {
+        byte[] encoded = utfCache.get(s);
+        if (encoded == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeUTF(s);
+            encoded = bytes.toByteArray();
+            utfCache.put(s, encoded);
+        }
+        putBytes(encoded);
+    }
+
+    /**
+     * Write the log buffer to the end of the file, without forcing it.
+     */
+    private void flushBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        FileChannel channel = raf.getChannel();
+        while (buffer.hasRemaining()) {
+            bufferOffset += channel.write(buffer, bufferOffset);
+        }
+        buffer.clear();
     }
 
     public synchronized int getTotalRecords() {
@@ -152,6 +391,10 @@ public class LogFile {
      * @param tid The aborting transaction.
      */
     public void logAbort(TransactionId tid) throws IOException {
+        // the page cleaner must not log pages of the transaction after its
+        // ABORT record
+        Database.getBufferPool().beginAbort(tid);
+
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
@@ -166,12 +409,13 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                putInt(ABORT_RECORD);
+                putLong(tid.getId());
+                putLong(currentOffset);
+                currentOffset = offset();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                loggedImages.remove(tid.getId());
             }
         }
     }
@@ -179,36 +423,259 @@ public class LogFile {
     /**
      * Write a commit record to disk for the specified tid,
      * and force the log to disk.
+     * <p>
+     * In group commit mode the record is appended, then the committer waits
+     * for a force covering it without holding the log, so transactions
+     * committing concurrently share one force.
      *
      * @param tid The committing transaction.
+     * @see #setGroupCommit(boolean)
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        int others;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            putInt(COMMIT_RECORD);
+            putLong(tid.getId());
+            putLong(currentOffset);
+            currentOffset = offset();
+            tidToFirstLogRecord.remove(tid.getId());
+            loggedImages.remove(tid.getId());
+            if (!groupCommit) {
+                force();
+                return;
+            }
+            lsn = getEndLsn();
+            others = tidToFirstLogRecord.size();
+        }
+        groupForce(lsn, others);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Force the records appended so far to disk, like {@link #force()}. In
+     * group commit mode concurrent callers share one force, so call it
+     * without holding the log.
+     */
+    public void forceAppended() throws IOException {
+        long lsn;
+        int others;
+        synchronized (this) {
+            if (!groupCommit) {
+                force();
+                return;
+            }
+            lsn = getEndLsn();
+            // the caller's own transaction is still running
+            others = Math.max(0, tidToFirstLogRecord.size() - 1);
+        }
+        groupForce(lsn, others);
+    }
+
+    /**
+     * Make the log durable up to and including the record with the given
+     * LSN, e.g. before writing a page that record describes. Does nothing
+     * if the log is already on disk that far.
+     *
+     * @param lsn the LSN of a record returned by {@link #logWrite}
+     */
+    public void flushTo(long lsn) throws IOException {
+        if (forcedLsn > lsn) {
+            return;
+        }
+        // a caller holding the log cannot wait for a group leader, which needs it
+        if (!groupCommit || Thread.holdsLock(this)) {
+            force();
+        } else {
+            forceAppended();
+        }
+    }
+
+    /**
+     * Wait until the log before the given LSN is on disk. The first caller to find
+     * no force under way becomes the leader: it waits up to the group commit
+     * window for the other running transactions to join, and stops waiting
+     * once they all have or the group commit size is reached, then forces
+     * everything appended by then and wakes up the callers it covered.
+     *
+     * @param lsn    the LSN the caller needs the log on disk up to
+     * @param others how many other transactions were running, which may join
+     */
+    private void groupForce(long lsn, int others) throws IOException {
+        while (true) {
+            synchronized (groupMonitor) {
+                if (forcedLsn >= lsn) {
+                    return;
+                }
+                // counts the callers since the last force started, so a
+                // gathering leader knows when its batch is full
+                pendingForces++;
+                groupMonitor.notifyAll();
+                boolean leader = false;
+                try {
+                    while (forcing && forcedLsn < lsn) {
+                        groupMonitor.wait();
+                    }
+                    if (forcedLsn >= lsn) {
+                        return;
+                    }
+                    forcing = true;
+                    leader = true;
+                    long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(groupCommitWindowUs);
+                    long remaining;
+                    int batch = Math.min(groupCommitSize, others + 1);
+                    while (pendingForces < batch
+                            && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(groupMonitor, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (!leader) {
+                        throw new InterruptedIOException();
+                    }
+                    // the others are waiting for the leader, so it forces anyway
+                }
+                pendingForces = 0;
+            }
+            long target = -1;
+            FileChannel channel = null;
+            try {
+                synchronized (this) {
+                    flushBuffer();
+                    target = getEndLsn();
+                    channel = raf.getChannel();
+                }
+                channel.force(true);
+                forces.increment();
+            } catch (ClosedChannelException e) {
+                target = -1;
+                synchronized (this) {
+                    if (raf.getChannel() == channel) {
+                        throw e;
+                    }
+                }
+                // the log was truncated under us, which forces what it copied
+            } finally {
+                synchronized (groupMonitor) {
+                    forcing = false;
+                    forcedLsn = Math.max(forcedLsn, target);
+                    groupMonitor.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void markForced(long lsn) {
+        synchronized (groupMonitor) {
+            if (lsn > forcedLsn) {
+                forcedLsn = lsn;
+                groupMonitor.notifyAll();
+            }
+        }
+    }
+
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Turn group commit on or off. When on, transactions committing
+     * concurrently append their COMMIT records and share a single force.
+     */
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * @return how long a group commit leader waits for other commits, in µs
+     */
+    public long getGroupCommitWindow() {
+        return groupCommitWindowUs;
+    }
+
+    /**
+     * Set how long a group commit leader waits for other commits to join
+     * its force, in µs; 0 to force at once with whatever is appended.
+     */
+    public void setGroupCommitWindow(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("group commit window must not be negative");
+        }
+        this.groupCommitWindowUs = micros;
+    }
+
+    /**
+     * @return the number of waiting commits that make a group commit leader
+     *         force without waiting for the rest of the window
+     */
+    public int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    public void setGroupCommitSize(int commits) {
+        if (commits < 1) {
+            throw new IllegalArgumentException("group commit size must be positive");
+        }
+        this.groupCommitSize = commits;
+    }
+
+    /**
+     * @return the number of times the log was forced to disk
+     */
+    public long getNumForces() {
+        return forces.sum();
     }
 
     /**
      * Write an UPDATE record to disk for the specified tid and page
      * (with provided         before and after images.)
+     * The record stays in the log buffer until the log is flushed.
      *
      * @param tid    The transaction performing the write
      * @param before The before image of the page
      * @param after  The after image of the page
+     * @return the LSN of the record
      * @see Page#getBeforeImage
+     * @see #flushTo(long)
      */
-    public synchronized void logWrite(TransactionId tid, Page before,
+    public synchronized long logWrite(TransactionId tid, Page before,
                                       Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        Debug.log("WRITE, offset = " + currentOffset);
+        long lsn = getEndLsn();
+        byte[] afterData = after.getPageData();
+        TupleDelta delta = null;
+        if (after instanceof SlottedPage && before.getClass() == after.getClass()) {
+            Map<PageId, byte[]> logged = loggedImages.get(tid.getId());
+            byte[] base = logged == null ? null : logged.get(after.getId());
+            delta = TupleDelta.diff((SlottedPage) after, base != null ? base : before.getPageData(), afterData);
+        }
+        byte[] deltaData = delta == null ? null : delta.toBytes();
+        if (tidToFirstLogRecord.containsKey(tid.getId())) {
+            loggedImages.computeIfAbsent(tid.getId(), k -> new HashMap<>()).put(after.getId(), afterData);
+        }
+        long[] lsns = dirtyPages.computeIfAbsent(after.getId(), k -> new long[]{lsn, lsn});
+        lsns[1] = lsn;
+        if (deltaData != null && deltaData.length < 2 * afterData.length) {
+            /* tuple record consists of
+
+               record type
+               transaction id
+               slot changes (see TupleDelta.toBytes)
+               start offset
+            */
+            putInt(TUPLE_RECORD);
+            putLong(tid.getId());
+            putBytes(deltaData);
+            putLong(currentOffset);
+            currentOffset = offset();
+            Debug.log("WRITE OFFSET = " + currentOffset);
+            return lsn;
+        }
         /* update record conists of
 
            record type
@@ -217,15 +684,55 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        putInt(UPDATE_RECORD);
+        putLong(tid.getId());
 
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        putPageData(before);
+        putPageData(after);
+        putLong(currentOffset);
+        currentOffset = offset();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
+    }
+
+    /**
+     * Tell the log that a page is on disk with the writes logged for it up to
+     * a record, so a checkpoint no longer lists it as dirty, unless it was
+     * logged again since.
+     *
+     * @param pid the page written
+     * @param lsn the LSN {@link #logWrite} returned for the page data written
+     */
+    public synchronized void pageWritten(PageId pid, long lsn) {
+        long[] lsns = dirtyPages.get(pid);
+        if (lsns == null) {
+            return;
+        }
+        if (lsns[1] <= lsn) {
+            dirtyPages.remove(pid);
+        } else if (lsns[0] <= lsn) {
+            // the later writes are still to come
+            lsns[0] = lsn + 1;
+        }
+    }
+
+    /**
+     * Append page data to the log buffer in the format of
+     * {@link #writePageData}.
+     */
+    private void putPageData(Page p) throws IOException {
+        PageId pid = p.getId();
+        int[] pageInfo = pid.serialize();
+        putUTF(p.getClass().getName());
+        putUTF(pid.getClass().getName());
+        putInt(pageInfo.length);
+        for (int j : pageInfo) {
+            putInt(j);
+        }
+        byte[] pageData = p.getPageData();
+        putInt(pageData.length);
+        putBytes(pageData);
     }
 
     void writePageData(RandomAccessFile raf, Page p) throws IOException {
@@ -257,43 +764,51 @@ public class LogFile {
     }
 
     Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
         String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
+        PageId pid = readPageId(raf);
+        byte[] pageData = new byte[raf.readInt()];
+        raf.readFully(pageData);
         try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = raf.readInt();
+            for (Constructor<?> c : Class.forName(pageClassName).getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length < 2 || params[1] != byte[].class) {
+                    continue;
+                }
+                if (params.length == 2) {
+                    return (Page) c.newInstance(pid, pageData);
+                }
+                if (params.length == 3 && params[2] == int.class) {
+                    // B+ tree pages also take the key field of their file
+                    BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    return (Page) c.newInstance(pid, pageData, file.keyField());
+                }
             }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IOException(e);
         }
-        return newPage;
+        throw new IOException("no constructor of " + pageClassName + " takes page data");
+    }
 
+    /**
+     * Read a page id written as in {@link #writePageData}: the id class name,
+     * the number of ints and the ints.
+     */
+    static PageId readPageId(DataInput in) throws IOException {
+        String idClassName = in.readUTF();
+        Object[] idArgs = new Object[in.readInt()];
+        for (int i = 0; i < idArgs.length; i++) {
+            idArgs[i] = in.readInt();
+        }
+        try {
+            for (Constructor<?> c : Class.forName(idClassName).getDeclaredConstructors()) {
+                if (c.getParameterCount() == idArgs.length) {
+                    return (PageId) c.newInstance(idArgs);
+                }
+            }
+        } catch (ReflectiveOperationException | IllegalArgumentException | ClassCastException e) {
+            throw new IOException(e);
+        }
+        throw new IOException("no constructor of " + idClassName + " takes " + idArgs.length + " ints");
     }
 
     /**
@@ -309,56 +824,83 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        putInt(BEGIN_RECORD);
+        putLong(tid.getId());
+        putLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = offset();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
     /**
      * Checkpoint the log and write a checkpoint record.
+     * <p>
+     * The checkpoint is fuzzy: it records the running transactions and the
+     * dirty page table without flushing the buffer pool, so it holds the log
+     * only while it appends the record and never blocks the buffer pool.
+     * Committed pages are on disk when their transaction commits, and the
+     * page cleaner writes other pages back in the background; recovery
+     * redoes what is not on disk from the recLSNs in the record.
      */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        synchronized (checkpointLock) {
+            long lsn;
+            long startCpOffset;
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                startCpOffset = offset();
+                lsn = getEndLsn();
+                putInt(CHECKPOINT_RECORD);
+                putLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                putInt(tidToFirstLogRecord.size());
+                for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    putLong(e.getKey());
+                    putLong(e.getValue());
                 }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+                //write the dirty page table
+                putInt(dirtyPages.size());
+                for (Map.Entry<PageId, long[]> e : dirtyPages.entrySet()) {
+                    putPageId(e.getKey());
+                    putLong(Math.max(e.getValue()[0] - lsnBase, LONG_SIZE));
+                }
+                putLong(currentOffset);
+                currentOffset = offset();
+            }
+
+            // the record must be on disk before the log header points to it
+            flushTo(lsn);
+            synchronized (this) {
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
+
+            logTruncate();
         }
+    }
 
-        logTruncate();
+    private void putPageId(PageId pid) throws IOException {
+        putUTF(pid.getClass().getName());
+        int[] pageInfo = pid.serialize();
+        putInt(pageInfo.length);
+        for (int j : pageInfo) {
+            putInt(j);
+        }
+    }
+
+    private static void writePageId(RandomAccessFile raf, PageId pid) throws IOException {
+        raf.writeUTF(pid.getClass().getName());
+        int[] pageInfo = pid.serialize();
+        raf.writeInt(pageInfo.length);
+        for (int j : pageInfo) {
+            raf.writeInt(j);
+        }
     }
 
     /**
@@ -367,6 +909,8 @@ public class LogFile {
      */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        flushBuffer();
+        long oldLength = bufferOffset;
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -392,6 +936,13 @@ public class LogFile {
                     minLogRecord = firstLogRecord;
                 }
             }
+
+            // recovery may redo from the first record of any dirty page
+            int numDirty = raf.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                readPageId(raf);
+                minLogRecord = Math.min(minLogRecord, raf.readLong());
+            }
         }
 
         // we can truncate everything before minLogRecord
@@ -422,6 +973,9 @@ public class LogFile {
                         writePageData(logNew, before);
                         writePageData(logNew, after);
                         break;
+                    case TUPLE_RECORD:
+                        logNew.write(TupleDelta.read(raf).toBytes());
+                        break;
                     case CHECKPOINT_RECORD:
                         int numXactions = raf.readInt();
                         logNew.writeInt(numXactions);
@@ -431,6 +985,12 @@ public class LogFile {
                             logNew.writeLong(xid);
                             logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                         }
+                        int numDirty = raf.readInt();
+                        logNew.writeInt(numDirty);
+                        while (numDirty-- > 0) {
+                            writePageId(logNew, readPageId(raf));
+                            logNew.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
+                        }
                         break;
                     case BEGIN_RECORD:
                         tidToFirstLogRecord.put(record_tid, newStart);
@@ -448,6 +1008,9 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        // the old log goes away, so what was appended to it must be on disk now
+        logNew.getChannel().force(true);
+        logNew.close();
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
@@ -456,6 +1019,10 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        bufferOffset = currentOffset;
+        // the end of the log keeps its LSN
+        lsnBase += oldLength - currentOffset;
+        markForced(getEndLsn());
         //print();
     }
 
@@ -473,6 +1040,7 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 preAppend();
+                flushBuffer();
                 // some code goes here
                 long tidId = tid.getId();
                 rollback(tidId);
@@ -480,34 +1048,123 @@ public class LogFile {
         }
     }
 
-    public void rollback(Long tidId) throws IOException{
+    /**
+     * Undo the writes the transaction logged, newest first, and drop the
+     * pages it wrote from the buffer pool.
+     */
+    public void rollback(Long tidId) throws IOException {
         Long begin = tidToFirstLogRecord.get(tidId);
         raf.seek(begin);
-        while (true){
+        List<Update> updates = new ArrayList<>();
+        while (true) {
             try {
                 int type = raf.readInt();
                 long curId = raf.readLong();
-                if (curId != tidId){
-                    if (type == 3){
-                        readPageData(raf);
-                        readPageData(raf);
-                    }
-                } else {
-                    if (type == 3){
-                        Page before = readPageData(raf);
-                        Page after = readPageData(raf);
-                        DbFile dbFile = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-                        dbFile.writePage(before);
-                        Database.getBufferPool().removePage(after.getId());
-                        raf.seek(raf.getFilePointer() + 8);
-                        break;
-                    }
+                Update update = readRecordBody(raf, type);
+                if (update != null && curId == tidId) {
+                    updates.add(update);
                 }
-                raf.seek(raf.getFilePointer() + 8);
-            } catch (EOFException e){
+            } catch (EOFException e) {
                 break;
             }
         }
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            PageId pid = updates.get(i).getPageId();
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.writePage(updates.get(i).undo(readDiskPage(file, pid)));
+            dirtyPages.remove(pid);
+            Database.getBufferPool().removePage(pid);
+        }
+    }
+
+    /**
+     * Read the rest of a record whose type and transaction id have been
+     * read, up to and including its start offset.
+     *
+     * @return the write an UPDATE or TUPLE record logged, null for other
+     *         records
+     */
+    private Update readRecordBody(RandomAccessFile in, int type) throws IOException {
+        Update update = null;
+        switch (type) {
+            case UPDATE_RECORD:
+                Page before = readPageData(in);
+                Page after = readPageData(in);
+                update = new PageImages(before, after);
+                break;
+            case TUPLE_RECORD:
+                update = TupleDelta.read(in);
+                break;
+            case CHECKPOINT_RECORD:
+                readCheckpointBody(in, null);
+                break;
+        }
+        in.readLong();
+        return update;
+    }
+
+    /**
+     * Like {@link #readRecordBody}, but only read the page an UPDATE or
+     * TUPLE record wrote, without building the pages.
+     *
+     * @return the page written, null for other records
+     */
+    private PageId skipRecordBody(RandomAccessFile in, int type) throws IOException {
+        PageId pid = null;
+        switch (type) {
+            case UPDATE_RECORD:
+                for (int i = 0; i < 2; i++) {
+                    in.readUTF();
+                    pid = readPageId(in);
+                    int len = in.readInt();
+                    in.seek(in.getFilePointer() + len);
+                }
+                break;
+            case TUPLE_RECORD:
+                pid = TupleDelta.read(in).getPageId();
+                break;
+            case CHECKPOINT_RECORD:
+                readCheckpointBody(in, null);
+                break;
+        }
+        in.readLong();
+        return pid;
+    }
+
+    /**
+     * Read the body of a checkpoint record, up to its start offset.
+     *
+     * @param dirty where to put the dirty page table, or null to skip it
+     * @return the smallest first record offset of the running transactions,
+     *         Long.MAX_VALUE if none was running
+     */
+    private static long readCheckpointBody(RandomAccessFile in, Map<PageId, Long> dirty) throws IOException {
+        long first = Long.MAX_VALUE;
+        int numXactions = in.readInt();
+        while (numXactions-- > 0) {
+            in.readLong();
+            first = Math.min(first, in.readLong());
+        }
+        int numDirty = in.readInt();
+        while (numDirty-- > 0) {
+            PageId pid = readPageId(in);
+            long recOffset = in.readLong();
+            if (dirty != null) {
+                dirty.put(pid, recOffset);
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @return the page as on disk, or null if the file does not reach it
+     */
+    private static Page readDiskPage(DbFile file, PageId pid) {
+        try {
+            return file.readPage(pid);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     /**
@@ -515,10 +1172,18 @@ public class LogFile {
      * is necessary so that start up can happen quickly (without
      * extensive recovery.)
      */
-    public synchronized void shutdown() {
+    public void shutdown() {
+        try {
+            // remember what was cached, so the next start can warm the buffer pool up
+            Database.getBufferPool().saveResidentPageIds(getWarmUpFile());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -529,86 +1194,226 @@ public class LogFile {
      * Recover the database system by ensuring that the updates of
      * committed transactions are installed and that the
      * updates of uncommitted transactions are not installed.
+     * <p>
+     * Recovery runs in three phases, as in ARIES. Analysis scans the log
+     * once from the first record a transaction running at the last
+     * checkpoint wrote or the first recLSN in its dirty page table,
+     * whichever is earlier, and keeps only where each write record is and
+     * which page it wrote, per transaction, until the transaction commits
+     * or aborts. Redo then replays the writes of the committed
+     * transactions, and undo takes the writes of the transactions that
+     * never finished back out, newest first. A write logged before the
+     * checkpoint is on disk already unless its page was in the dirty page
+     * table and the write is not older than the page's recLSN, so redo
+     * skips it. Aborted transactions were rolled back before their ABORT
+     * record was written and are left alone.
+     * <p>
+     * Both redo and undo only need the writes of a page in log order, so
+     * the pages are split across {@link #getRecoveryThreads()} threads.
+     * Each page is read once, its writes are applied in memory, and it is
+     * written back once, only if that changed it.
      */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                // some code goes here
-                Map<Long, List<Page[]>> map = new HashMap<>();
+                flushBuffer();
                 raf.seek(0);
-                print();
                 long checkPoint = raf.readLong();
-                if (checkPoint != -1){
-                    Map<Long, Long> pos = new HashMap<>();
-                    raf.seek(checkPoint);
-                    raf.seek(raf.getFilePointer() + 12);
-                    int num = raf.readInt();
-                    while (num > 0){
-                        long curId = raf.readLong();
-                        long off = raf.readLong();
-                        pos.put(curId, off);
-                        num--;
+                long start = raf.getFilePointer();
+                long redoStart = start;
+                // pages whose writes before the checkpoint may not be on
+                // disk, and the first record of each to redo
+                Map<PageId, Long> dirty = new HashMap<>();
+                if (checkPoint != NO_CHECKPOINT_ID) {
+                    raf.seek(checkPoint + INT_SIZE + LONG_SIZE);
+                    start = Math.min(checkPoint, readCheckpointBody(raf, dirty));
+                    redoStart = checkPoint;
+                    for (long recOffset : dirty.values()) {
+                        start = Math.min(start, recOffset);
                     }
-                    for (Long i : pos.keySet()){
-                        raf.seek(pos.get(i));
-                        recoverSearch(raf, map);
+                }
+
+                // analysis: the writes of each transaction not ended yet,
+                // and the writes to redo, per page in log order
+                Map<Long, List<LoggedWrite>> running = new LinkedHashMap<>();
+                Map<PageId, List<Long>> redo = new HashMap<>();
+                raf.seek(start);
+                while (true) {
+                    try {
+                        long offset = raf.getFilePointer();
+                        int type = raf.readInt();
+                        long curId = raf.readLong();
+                        PageId pid = skipRecordBody(raf, type);
+                        if (pid != null) {
+                            running.computeIfAbsent(curId, k -> new ArrayList<>()).add(new LoggedWrite(offset, pid));
+                        } else if (type == COMMIT_RECORD) {
+                            for (LoggedWrite w : running.getOrDefault(curId, Collections.emptyList())) {
+                                Long recOffset = dirty.get(w.pid);
+                                if (w.offset < redoStart && (recOffset == null || w.offset < recOffset)) {
+                                    skippedRecords.increment();
+                                } else {
+                                    redo.computeIfAbsent(w.pid, k -> new ArrayList<>()).add(w.offset);
+                                }
+                            }
+                            running.remove(curId);
+                        } else if (type == ABORT_RECORD) {
+                            running.remove(curId);
+                        }
+                    } catch (EOFException e) {
+                        break;
                     }
-                } else {
-                    System.out.println(raf.getFilePointer() + "-------------");
-                    recoverSearch(raf, map);
                 }
-                for (Long tid : map.keySet()){
-                    Page[] pages = map.get(tid).get(0);
-                    Page before = pages[0];
-                    DbFile dbFile = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-                    dbFile.writePage(before);
+
+                // the transactions left never finished; undo their writes
+                // newest first
+                List<LoggedWrite> losers = new ArrayList<>();
+                for (List<LoggedWrite> writes : running.values()) {
+                    losers.addAll(writes);
                 }
-                map.clear();
+                losers.sort(Comparator.comparingLong((LoggedWrite w) -> w.offset).reversed());
+                Map<PageId, List<Long>> undo = new HashMap<>();
+                for (LoggedWrite w : losers) {
+                    undo.computeIfAbsent(w.pid, k -> new ArrayList<>()).add(w.offset);
+                }
+
+                replay(redo, true);
+                replay(undo, false);
             }
         }
     }
 
-    public void recoverSearch(RandomAccessFile raf, Map<Long, List<Page[]>> map) throws IOException{
-        while (true){
-            try {
-                int type = raf.readInt();
-                long curId = raf.readLong();
-                if (type == 3){
-                    if (!map.containsKey(curId)){
-                        map.put(curId, new ArrayList<>());
-                    }
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-                    Page[] pages = new Page[2];
-                    pages[0] = before;
-                    pages[1] = after;
-                    map.get(curId).add(pages);
-                } else if (type == 2 && map.containsKey(curId)){
-                    Page[] pages = map.get(curId).get(map.get(curId).size() - 1);
-                    Page before = pages[0];
-                    Page after = pages[1];
-                    DbFile dbFile = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-                    dbFile.writePage(after);
-                    map.remove(curId);
-                } else if (type == 1 && map.containsKey(curId)){
-                    Page[] pages = map.get(curId).get(0);
-                    Page before = pages[0];
-                    Page after = pages[1];
-                    DbFile dbFile = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-                    dbFile.writePage(before);
-                    map.remove(curId);
+    /**
+     * Where a write record is in the log and the page it wrote.
+     */
+    private static class LoggedWrite {
+        final long offset;
+        final PageId pid;
+
+        LoggedWrite(long offset, PageId pid) {
+            this.offset = offset;
+            this.pid = pid;
+        }
+    }
+
+    /**
+     * Redo or undo the write records at the given offsets, the pages split
+     * across the recovery threads.
+     *
+     * @param writes the offsets of the records of each page, in the order
+     *               to apply them
+     */
+    private void replay(Map<PageId, List<Long>> writes, boolean redo) throws IOException {
+        if (writes.isEmpty()) {
+            return;
+        }
+        int threads = Math.max(1, Math.min(recoveryThreads, writes.size()));
+        List<List<PageId>> partitions = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (PageId pid : writes.keySet()) {
+            partitions.get(Math.floorMod(pid.hashCode(), threads)).add(pid);
+        }
+        if (threads == 1) {
+            replay(partitions.get(0), writes, redo);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, redo ? "recovery-redo" : "recovery-undo");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (List<PageId> partition : partitions) {
+                done.add(executor.submit(() -> {
+                    replay(partition, writes, redo);
+                    return null;
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("recovery interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void replay(List<PageId> pids, Map<PageId, List<Long>> writes, boolean redo) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(logFile, "r")) {
+            for (PageId pid : pids) {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                Page page = readDiskPage(file, pid);
+                byte[] onDisk = page == null ? null : page.getPageData();
+                for (long offset : writes.get(pid)) {
+                    in.seek(offset);
+                    int type = in.readInt();
+                    in.readLong();
+                    Update update = readRecordBody(in, type);
+                    page = redo ? update.redo(page) : update.undo(page);
+                    replayedRecords.increment();
+                }
+                if (page != null && (onDisk == null || !Arrays.equals(onDisk, page.getPageData()))) {
+                    file.writePage(page);
+                    recoveryPageWrites.increment();
                 }
-                raf.seek(raf.getFilePointer() + 8);
-            } catch (EOFException e){
-                break;
             }
         }
     }
 
+    /**
+     * @return the number of threads recovery replays pages with
+     */
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    /**
+     * Set the number of threads recovery replays pages with, by default the
+     * number of processors.
+     */
+    public void setRecoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("recovery needs a thread");
+        }
+        this.recoveryThreads = threads;
+    }
+
+    /**
+     * @return the number of write records recovery has redone or undone
+     */
+    public long getReplayedRecords() {
+        return replayedRecords.sum();
+    }
+
+    /**
+     * @return the number of write records of committed transactions
+     *         recovery found on disk already and did not redo
+     */
+    public long getSkippedRecords() {
+        return skippedRecords.sum();
+    }
+
+    /**
+     * @return the number of pages recovery wrote
+     */
+    public long getRecoveryPageWrites() {
+        return recoveryPageWrites.sum();
+    }
+
     /**
      * Print out a human readable represenation of the log
      */
-    public void print() throws IOException {
+    public synchronized void print() throws IOException {
+        flushBuffer();
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -648,6 +1453,12 @@ public class LogFile {
                             System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
                             System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                         }
+                        int numDirty = raf.readInt();
+                        System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+                        while (numDirty-- > 0) {
+                            PageId pid = readPageId(raf);
+                            System.out.println(raf.getFilePointer() + ": PAGE " + pid + " RECORD: " + raf.readLong());
+                        }
                         System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
                         break;
@@ -670,6 +1481,11 @@ public class LogFile {
 
                         System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                        break;
+                    case TUPLE_RECORD:
+                        System.out.println(" (TUPLE)");
+                        System.out.println(raf.getFilePointer() + ": " + TupleDelta.read(raf));
+                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
                         break;
                 }
 
@@ -684,7 +1500,10 @@ public class LogFile {
     }
 
     public synchronized void force() throws IOException {
+        flushBuffer();
         raf.getChannel().force(true);
+        forces.increment();
+        markForced(getEndLsn());
     }
 
 }
@@ -0,0 +1,261 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * PageTable maps the ids of the pages resident in the BufferPool to their
+ * frames. It is partitioned into shards hashed by PageId; each shard owns its
+ * own ReplacementPolicy and monitor, so threads working on pages of different
+ * shards never contend.
+ * <p>
+ * Lookups go straight to a concurrent map and only notify the policy of the
+ * hit; adding, removing, pinning and evicting pages take the monitor of the
+ * shard. PageTable does not enforce any capacity, the BufferPool does.
+ */
+class PageTable {
+
+    private static class Shard {
+        final Map<PageId, Frame> frames = new ConcurrentHashMap<>();
+        final ReplacementPolicy policy;
+
+        Shard(ReplacementPolicy policy) {
+            this.policy = policy;
+        }
+    }
+
+    private final List<Shard> shards;
+
+    /**
+     * @param numShards number of shards
+     * @param capacity  total number of pages the table is expected to hold
+     * @param policy    creates the replacement policy of each shard
+     */
+    PageTable(int numShards, int capacity, ReplacementPolicy.Factory policy) {
+        shards = new ArrayList<>(numShards);
+        for (int i = 0; i < numShards; i++) {
+            shards.add(new Shard(policy.create(shardCapacity(capacity, numShards))));
+        }
+    }
+
+    private static int shardCapacity(int capacity, int numShards) {
+        return (capacity + numShards - 1) / numShards;
+    }
+
+    /**
+     * Tell the policy of every shard the table is now expected to hold the
+     * given number of pages. The number of shards does not change.
+     */
+    void capacityChanged(int capacity) {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.policy.capacityChanged(shardCapacity(capacity, shards.size()));
+            }
+        }
+    }
+
+    int numShards() {
+        return shards.size();
+    }
+
+    private Shard shardOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return shards.get((h & 0x7fffffff) % shards.size());
+    }
+
+    /**
+     * @return the resident page with the given id, or null on a miss
+     */
+    Page get(PageId pid, AccessHint hint) {
+        Shard shard = shardOf(pid);
+        Frame frame = shard.frames.get(pid);
+        if (frame == null) {
+            return null;
+        }
+        shard.policy.frameAccessed(frame, hint);
+        return frame.page;
+    }
+
+    /**
+     * @return the resident page with the given id, or null if it is not
+     *         resident; unlike get, this does not count as an access for the
+     *         replacement policy
+     */
+    Page peek(PageId pid) {
+        Frame frame = shardOf(pid).frames.get(pid);
+        return frame == null ? null : frame.page;
+    }
+
+    /**
+     * @return true if the page is resident; unlike a lookup, this does not
+     *         count as an access for the replacement policy
+     */
+    boolean contains(PageId pid) {
+        return shardOf(pid).frames.containsKey(pid);
+    }
+
+    /**
+     * Add the page unless a page with the same id is already resident.
+     *
+     * @return the page already resident, or null if the given page was added
+     */
+    Page putIfAbsent(Page page, AccessHint hint) {
+        Shard shard = shardOf(page.getId());
+        synchronized (shard) {
+            Frame frame = shard.frames.get(page.getId());
+            if (frame != null) {
+                shard.policy.frameAccessed(frame, hint);
+                return frame.page;
+            }
+            frame = new Frame(page.getId(), page);
+            shard.frames.put(page.getId(), frame);
+            shard.policy.frameAdded(frame, hint);
+            return null;
+        }
+    }
+
+    /**
+     * Replace the resident copy of the page with the given one.
+     *
+     * @return the copy that was resident, or null if no page with the same id
+     *         is resident
+     */
+    Page replace(Page page) {
+        Shard shard = shardOf(page.getId());
+        synchronized (shard) {
+            Frame frame = shard.frames.get(page.getId());
+            if (frame == null) {
+                return null;
+            }
+            Page previous = frame.page;
+            frame.page = page;
+            shard.policy.frameAccessed(frame, AccessHint.NORMAL);
+            return previous;
+        }
+    }
+
+    /**
+     * @return the removed page, or null if it was not resident
+     */
+    Page remove(PageId pid) {
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            Frame frame = shard.frames.remove(pid);
+            if (frame == null) {
+                return null;
+            }
+            shard.policy.frameRemoved(frame);
+            return frame.page;
+        }
+    }
+
+    /**
+     * Pin the frame of a resident page so it cannot be evicted until it is
+     * unpinned. The pin is taken under the monitor of the shard, so the frame
+     * cannot be chosen as a victim between the lookup and the pin.
+     *
+     * @return the pinned frame, or null if the page is not resident
+     */
+    Frame pin(PageId pid) {
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            Frame frame = shard.frames.get(pid);
+            if (frame != null) {
+                frame.pins++;
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * Release one pin on a frame returned by {@link #pin(PageId)}. The frame
+     * may have been removed from the table meanwhile.
+     */
+    void unpin(Frame frame) {
+        Shard shard = shardOf(frame.getId());
+        synchronized (shard) {
+            if (frame.pins > 0) {
+                frame.pins--;
+            }
+        }
+    }
+
+    /**
+     * @return true if the page is resident and pinned
+     */
+    boolean isPinned(PageId pid) {
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            Frame frame = shard.frames.get(pid);
+            return frame != null && frame.pins > 0;
+        }
+    }
+
+    /**
+     * Evict the page the policy of one shard picks among the unpinned,
+     * evictable ones.
+     *
+     * @param shardIndex the shard to evict from
+     * @param evictable  tells whether a page may be evicted
+     * @return the evicted page, or null if the shard has no evictable page
+     */
+    Page evict(int shardIndex, Predicate<Page> evictable) {
+        Shard shard = shards.get(shardIndex);
+        synchronized (shard) {
+            Frame victim = shard.policy.chooseVictim(
+                    frame -> frame.pins == 0 && evictable.test(frame.page));
+            if (victim == null) {
+                return null;
+            }
+            shard.frames.remove(victim.getId());
+            shard.policy.frameRemoved(victim);
+            return victim.page;
+        }
+    }
+
+    /**
+     * @return the ids of the resident pages, roughly the ones the policies
+     *         value most first: the shards' lists are interleaved, since
+     *         there is no order across shards
+     */
+    List<PageId> pageIdsByValue() {
+        List<List<Frame>> lists = new ArrayList<>(shards.size());
+        int total = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                List<Frame> frames = shard.policy.frames();
+                lists.add(frames);
+                total += frames.size();
+            }
+        }
+        List<PageId> pids = new ArrayList<>(total);
+        for (int rank = 0; pids.size() < total; rank++) {
+            for (List<Frame> frames : lists) {
+                if (rank < frames.size()) {
+                    pids.add(frames.get(rank).getId());
+                }
+            }
+        }
+        return pids;
+    }
+
+    /**
+     * @return a snapshot of the resident pages, shard by shard, each shard in
+     *         the order its policy values them
+     */
+    List<Page> pages() {
+        List<Page> pages = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Frame frame : shard.policy.frames()) {
+                    pages.add(frame.page);
+                }
+            }
+        }
+        return pages;
+    }
+}
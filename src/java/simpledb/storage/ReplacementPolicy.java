@@ -0,0 +1,88 @@
+package simpledb.storage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which page of a BufferPool shard is evicted when
+ * the pool is full. Every shard of the page table owns one instance, so an
+ * implementation only ever sees the frames of its own shard.
+ * <p>
+ * frameAccessed is called on every cache hit without any lock held; it is the
+ * hot path of the pool and should be as cheap as possible. All other methods
+ * are called with the monitor of the shard held.
+ *
+ * @see PageTable
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Creates the policy of one shard.
+     */
+    interface Factory {
+        /**
+         * @param capacity the number of pages the shard is expected to hold
+         */
+        ReplacementPolicy create(int capacity);
+    }
+
+    /**
+     * Least recently used replacement; every hit relinks the frame.
+     */
+    Factory LRU = LRUPolicy::new;
+
+    /**
+     * CLOCK (second chance) replacement; a hit only sets a reference bit.
+     */
+    Factory CLOCK = ClockPolicy::new;
+
+    /**
+     * Scan resistant 2Q replacement; pages must be requested again after
+     * leaving the probation queue before they can push out the hot set.
+     */
+    Factory TWO_QUEUE = TwoQueuePolicy::new;
+
+    /**
+     * A page was added to the shard.
+     *
+     * @param hint how the page that caused the miss is being accessed
+     */
+    void frameAdded(Frame frame, AccessHint hint);
+
+    /**
+     * A resident page was requested again.
+     *
+     * @param hint how the page is being accessed
+     */
+    void frameAccessed(Frame frame, AccessHint hint);
+
+    /**
+     * A page was removed from the shard, either evicted or discarded.
+     */
+    void frameRemoved(Frame frame);
+
+    /**
+     * Pick the frame to evict. The frame is not removed; the caller does it
+     * through frameRemoved.
+     *
+     * @param evictable tells whether a frame may be evicted at all
+     * @return the victim, or null if no frame is evictable
+     */
+    Frame chooseVictim(Predicate<Frame> evictable);
+
+    /**
+     * @return the resident frames, the ones the policy values most first
+     */
+    List<Frame> frames();
+
+    /**
+     * The number of pages the shard is expected to hold changed because the
+     * BufferPool was resized. Policies that do not size anything after the
+     * capacity ignore it.
+     *
+     * @param capacity the new number of pages of the shard
+     */
+    default void capacityChanged(int capacity) {
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb.storage;
+
+/**
+ * A page that stores its tuples in fixed-size slots following a bitmap of
+ * the used slots, so a change to it can be logged as the slots it filled
+ * and cleared instead of as whole page images.
+ * <p>
+ * The page data holds the bitmap at {@link #getHeaderOffset()}, one bit
+ * per slot, lowest bit first, in ceiling(slots / 8) bytes, immediately
+ * followed by the slots; an empty slot is all zeroes.
+ *
+ * @see TupleDelta
+ */
+public interface SlottedPage extends Page {
+
+    /**
+     * @return the number of tuple slots of the page
+     */
+    int getNumSlots();
+
+    /**
+     * @return the offset of the bitmap of used slots in the page data
+     */
+    int getHeaderOffset();
+
+    /**
+     * @return the size of a slot in bytes
+     */
+    int getSlotSize();
+
+    boolean isSlotUsed(int slot);
+
+    /**
+     * Store a tuple in the slot, whether it is used or not, and mark it
+     * used.
+     *
+     * @param tuple the serialized tuple, {@link #getSlotSize()} bytes
+     */
+    void putSlot(int slot, byte[] tuple);
+
+    /**
+     * Empty the slot, whether it is used or not.
+     */
+    void clearSlot(int slot);
+}
@@ -0,0 +1,203 @@
+package simpledb.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TupleDelta is the body of a tuple-level log record: the slots of one
+ * {@link SlottedPage} a write filled and cleared, with the tuple bytes, so
+ * it can be redone and undone without whole page images. Each change sets
+ * a slot to an absolute value, so applying the changes of a page's records
+ * in log order gives the same page from any earlier state of it.
+ */
+class TupleDelta implements LogFile.Update {
+
+    private static final byte DELETE = 0;
+    private static final byte INSERT = 1;
+
+    private final PageId pid;
+    private final List<SlotChange> changes;
+
+    private static class SlotChange {
+        final byte op;
+        final int slot;
+        final byte[] tuple;
+
+        SlotChange(byte op, int slot, byte[] tuple) {
+            this.op = op;
+            this.slot = slot;
+            this.tuple = tuple;
+        }
+    }
+
+    private TupleDelta(PageId pid, List<SlotChange> changes) {
+        this.pid = pid;
+        this.changes = changes;
+    }
+
+    /**
+     * Compute the changes turning one version of a page into another. A slot
+     * whose tuple was replaced is deleted, then inserted again.
+     *
+     * @param page   the page, for its layout
+     * @param before the page data the changes apply to
+     * @param after  the page data after the changes
+     * @return the changes, or null if the versions also differ outside the
+     *         used slots, e.g. in the sibling pointers of a B+ tree leaf
+     */
+    static TupleDelta diff(SlottedPage page, byte[] before, byte[] after) {
+        if (before.length != after.length) {
+            return null;
+        }
+        int header = page.getHeaderOffset();
+        int slots = header + (page.getNumSlots() + 7) / 8;
+        int size = page.getSlotSize();
+        List<SlotChange> changes = new ArrayList<>();
+        for (int s = 0; s < page.getNumSlots(); s++) {
+            boolean usedBefore = isUsed(before, header, s);
+            boolean usedAfter = isUsed(after, header, s);
+            int from = slots + s * size;
+            if (usedBefore == usedAfter && Arrays.equals(before, from, from + size, after, from, from + size)) {
+                continue;
+            }
+            if (usedBefore) {
+                changes.add(new SlotChange(DELETE, s, Arrays.copyOfRange(before, from, from + size)));
+            }
+            if (usedAfter) {
+                changes.add(new SlotChange(INSERT, s, Arrays.copyOfRange(after, from, from + size)));
+            }
+        }
+        // every other byte must come out the same
+        byte[] check = before.clone();
+        for (SlotChange change : changes) {
+            apply(check, header, slots, size, change, false);
+        }
+        return Arrays.equals(check, after) ? new TupleDelta(page.getId(), changes) : null;
+    }
+
+    private static boolean isUsed(byte[] data, int header, int slot) {
+        return (data[header + slot / 8] & (1 << (slot % 8))) != 0;
+    }
+
+    private static void apply(byte[] data, int header, int slots, int size, SlotChange change, boolean undo) {
+        int from = slots + change.slot * size;
+        if ((change.op == INSERT) != undo) {
+            data[header + change.slot / 8] |= (byte) (1 << (change.slot % 8));
+            System.arraycopy(change.tuple, 0, data, from, size);
+        } else {
+            data[header + change.slot / 8] &= (byte) ~(1 << (change.slot % 8));
+            Arrays.fill(data, from, from + size, (byte) 0);
+        }
+    }
+
+    private static void apply(SlottedPage page, SlotChange change, boolean undo) {
+        if ((change.op == INSERT) != undo) {
+            page.putSlot(change.slot, change.tuple);
+        } else {
+            page.clearSlot(change.slot);
+        }
+    }
+
+    @Override
+    public PageId getPageId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of slots filled and cleared
+     */
+    int getNumChanges() {
+        return changes.size();
+    }
+
+    /**
+     * Apply the changes to the page.
+     */
+    @Override
+    public Page redo(Page page) throws IOException {
+        SlottedPage slotted = slotted(page);
+        for (SlotChange change : changes) {
+            apply(slotted, change, false);
+        }
+        return slotted;
+    }
+
+    /**
+     * Take the changes back out of the page, newest first.
+     */
+    @Override
+    public Page undo(Page page) throws IOException {
+        SlottedPage slotted = slotted(page);
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            apply(slotted, changes.get(i), true);
+        }
+        return slotted;
+    }
+
+    private SlottedPage slotted(Page page) throws IOException {
+        if (!(page instanceof SlottedPage)) {
+            throw new IOException("cannot apply tuple changes to page " + pid + ": " + page);
+        }
+        return (SlottedPage) page;
+    }
+
+    /**
+     * @return the serialized delta: the page id, as in
+     *         {@link LogFile#writePageData}, then the number of changes and
+     *         for each an op byte, the slot, the tuple length and bytes
+     */
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(pid.getClass().getName());
+            int[] pageInfo = pid.serialize();
+            out.writeInt(pageInfo.length);
+            for (int j : pageInfo) {
+                out.writeInt(j);
+            }
+            out.writeInt(changes.size());
+            for (SlotChange change : changes) {
+                out.writeByte(change.op);
+                out.writeInt(change.slot);
+                out.writeInt(change.tuple.length);
+                out.write(change.tuple);
+            }
+        } catch (IOException e) {
+            // writing to memory
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a delta written by {@link #toBytes()}.
+     */
+    static TupleDelta read(DataInput in) throws IOException {
+        PageId pid = LogFile.readPageId(in);
+        int n = in.readInt();
+        List<SlotChange> changes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            byte op = in.readByte();
+            int slot = in.readInt();
+            byte[] tuple = new byte[in.readInt()];
+            in.readFully(tuple);
+            changes.add(new SlotChange(op, slot, tuple));
+        }
+        return new TupleDelta(pid, changes);
+    }
+
+    @Override
+    public String toString() {
+        int inserts = 0;
+        for (SlotChange change : changes) {
+            inserts += change.op;
+        }
+        return pid + ": " + inserts + " inserts, " + (changes.size() - inserts) + " deletes";
+    }
+}
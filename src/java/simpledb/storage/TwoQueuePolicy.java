@@ -0,0 +1,123 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * TwoQueuePolicy implements the 2Q replacement algorithm of Johnson and
+ * Shasha. A page seen for the first time enters A1in, a FIFO probation queue.
+ * Hits on A1in do not promote the page, since they are usually correlated
+ * references of the same query. When a page leaves A1in its id is remembered
+ * in the ghost queue A1out; only a page requested again while in A1out is
+ * considered hot and moves to Am, an LRU list that a one-off scan cannot
+ * flush.
+ * <p>
+ * Pages read with AccessHint.SEQUENTIAL go through A1in but are never
+ * remembered in A1out, so rescanning a big table does not promote its pages
+ * either.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private static final int A1IN = 1;
+    private static final int AM = 2;
+    /**
+     * Marks an A1in frame added by a sequential scan.
+     */
+    private static final int A1IN_SEQUENTIAL = 3;
+
+    private final FrameList a1in = new FrameList();
+    private final FrameList am = new FrameList();
+    private final Set<PageId> a1out = new LinkedHashSet<>();
+
+    private int maxA1in;
+    private int maxA1out;
+
+    /**
+     * @param capacity the number of pages of the shard; A1in gets a quarter of
+     *                 it and A1out remembers half of it
+     */
+    public TwoQueuePolicy(int capacity) {
+        capacityChanged(capacity);
+    }
+
+    @Override
+    public synchronized void capacityChanged(int capacity) {
+        this.maxA1in = Math.max(1, capacity / 4);
+        this.maxA1out = Math.max(1, capacity / 2);
+        while (a1out.size() > maxA1out) {
+            Iterator<PageId> oldest = a1out.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    @Override
+    public synchronized void frameAdded(Frame frame, AccessHint hint) {
+        if (hint != AccessHint.SEQUENTIAL && a1out.remove(frame.getId())) {
+            frame.queue = AM;
+            am.addToHead(frame);
+        } else {
+            frame.queue = hint == AccessHint.SEQUENTIAL ? A1IN_SEQUENTIAL : A1IN;
+            a1in.addToHead(frame);
+        }
+    }
+
+    @Override
+    public synchronized void frameAccessed(Frame frame, AccessHint hint) {
+        // the frame may have been evicted since the caller looked it up
+        if (frame.next != null && frame.queue == AM) {
+            am.moveToHead(frame);
+        } else if (frame.next != null && frame.queue == A1IN_SEQUENTIAL && hint != AccessHint.SEQUENTIAL) {
+            // a point access of a scanned page earns it a place in A1out
+            frame.queue = A1IN;
+        }
+    }
+
+    @Override
+    public synchronized void frameRemoved(Frame frame) {
+        if (frame.queue == AM) {
+            am.remove(frame);
+        } else {
+            a1in.remove(frame);
+        }
+    }
+
+    @Override
+    public synchronized Frame chooseVictim(Predicate<Frame> evictable) {
+        Frame victim = null;
+        if (a1in.size() > maxA1in || am.size() == 0) {
+            victim = a1in.lastMatching(evictable);
+        }
+        if (victim == null) {
+            victim = am.lastMatching(evictable);
+        }
+        if (victim == null) {
+            victim = a1in.lastMatching(evictable);
+        }
+        if (victim != null && victim.queue == A1IN) {
+            remember(victim.getId());
+        }
+        return victim;
+    }
+
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > maxA1out) {
+            Iterator<PageId> oldest = a1out.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    @Override
+    public synchronized List<Frame> frames() {
+        List<Frame> result = new ArrayList<>(am.size() + a1in.size());
+        am.addTo(result);
+        a1in.addTo(result);
+        return result;
+    }
+}
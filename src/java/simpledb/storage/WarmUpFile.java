@@ -0,0 +1,103 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * WarmUpFile stores the ids of the pages resident in the BufferPool at
+ * shutdown, most recently used first, so the next start can read them back
+ * before queries ask for them. Ids are stored like the LogFile stores them:
+ * the class name of the id followed by its serialized ints.
+ * <p>
+ * The file is only a hint: a missing, truncated or stale file leads to
+ * fewer or useless pages being read ahead, never to wrong results.
+ */
+class WarmUpFile {
+
+    private static final int MAGIC = 0x5744424b;
+
+    private WarmUpFile() {
+    }
+
+    /**
+     * Write the given page ids, replacing the file atomically so a crash while
+     * writing leaves the previous file in place.
+     */
+    static void write(File f, List<PageId> pids) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] ints = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(ints.length);
+                for (int i : ints) {
+                    out.writeInt(i);
+                }
+            }
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f)) {
+                throw new IOException("cannot replace " + f);
+            }
+        }
+    }
+
+    /**
+     * @return the page ids in the file, in the order they were written; an
+     *         empty list if the file does not exist or is not a warm-up file
+     */
+    static List<PageId> read(File f) throws IOException {
+        List<PageId> pids = new ArrayList<>();
+        if (!f.exists()) {
+            return pids;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC) {
+                return pids;
+            }
+            int n = in.readInt();
+            for (int k = 0; k < n; k++) {
+                String idClassName = in.readUTF();
+                Object[] args = new Object[in.readInt()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = in.readInt();
+                }
+                PageId pid = newPageId(idClassName, args);
+                if (pid != null) {
+                    pids.add(pid);
+                }
+            }
+        } catch (EOFException e) {
+            // truncated file, keep what was read
+        }
+        return pids;
+    }
+
+    private static PageId newPageId(String idClassName, Object[] args) {
+        try {
+            for (Constructor<?> c : Class.forName(idClassName).getDeclaredConstructors()) {
+                if (c.getParameterCount() == args.length) {
+                    return (PageId) c.newInstance(args);
+                }
+            }
+        } catch (ReflectiveOperationException | IllegalArgumentException | ClassCastException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,27 @@
+package simpledb.transaction;
+
+/**
+ * How LockManager keeps transactions from waiting for each other forever.
+ * The prevention policies order transactions by TransactionId, the smaller
+ * id being the older transaction; a transaction restarted with a new id is
+ * younger than before.
+ */
+public enum DeadlockPolicy {
+    /**
+     * Let any request wait, and search the waits-for graph for cycles,
+     * aborting the youngest transaction of a cycle.
+     */
+    DETECT,
+    /**
+     * An older transaction waits for a younger one; a younger transaction
+     * that would wait for an older one is aborted instead ("dies").
+     */
+    WAIT_DIE,
+    /**
+     * A younger transaction waits for an older one; an older transaction
+     * that would wait for a younger one aborts it instead ("wounds" it) and
+     * waits for it to release its locks. The wounded transaction aborts at
+     * its next lock request, or at once if it is waiting.
+     */
+    WOUND_WAIT
+}
@@ -0,0 +1,122 @@
+package simpledb.transaction;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in buckets of exponentially growing
+ * width: bucket 0 holds durations under 2 µs, and bucket i > 0 those from
+ * 2^i µs up to 2^(i+1) µs, the last bucket everything longer. Recording is
+ * a striped counter increment, so threads recording concurrently do not
+ * contend.
+ */
+public class LatencyHistogram {
+
+    public static final int NUM_BUCKETS = 32;
+
+    private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count one duration.
+     *
+     * @param nanos the duration in ns
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos) / 1000;
+        int bucket = micros < 2 ? 0 : Math.min(NUM_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket].increment();
+        totalNanos.add(Math.max(0, nanos));
+    }
+
+    /**
+     * @return the upper bound of the bucket, in µs, or Long.MAX_VALUE for
+     *         the last one
+     */
+    public static long upperBoundMicros(int bucket) {
+        return bucket == NUM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << (bucket + 1);
+    }
+
+    /**
+     * @return the number of durations in each bucket
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of the durations recorded, in ns
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the upper bound, in µs, of the bucket holding the given
+     *         percentile, or 0 if nothing was recorded
+     */
+    public long getPercentileMicros(double fraction) {
+        long[] counts = getBucketCounts();
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBoundMicros(i);
+            }
+        }
+        return upperBoundMicros(NUM_BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        totalNanos.reset();
+    }
+
+    /**
+     * @return the non-empty buckets, one per line, as "&lt; bound µs: count"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        long[] counts = getBucketCounts();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            String bound = i == NUM_BUCKETS - 1 ? "inf" : String.valueOf(upperBoundMicros(i));
+            sb.append(String.format("  < %10s us: %d%n", bound, counts[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -1,7 +1,5 @@
 package simpledb.transaction;
 
-import simpledb.common.Permissions;
-
 /**
  * @ClassName Lock
  * @Description Lock
@@ -10,11 +8,11 @@ import simpledb.common.Permissions;
  **/
 
 public class Lock {
-    private Permissions permissions;
+    private LockMode mode;
     private TransactionId transactionId;
 
-    public Lock(Permissions permissions, TransactionId transactionId){
-        this.permissions = permissions;
+    public Lock(LockMode mode, TransactionId transactionId){
+        this.mode = mode;
         this.transactionId = transactionId;
     }
 
@@ -22,18 +20,18 @@ public class Lock {
         return transactionId;
     }
 
-    public Permissions getPermissions(){
-        return permissions;
+    public LockMode getMode(){
+        return mode;
     }
 
-    public void setPermissions(Permissions permissions){
-        this.permissions = permissions;
+    public void setMode(LockMode mode){
+        this.mode = mode;
     }
 
     @Override
     public String toString(){
         return "Lock{" +
-                "permissions=" + permissions +
+                "mode=" + mode +
                 ", transactionId=" + transactionId +
                 "}";
     }
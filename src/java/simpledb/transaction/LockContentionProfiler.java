@@ -0,0 +1,282 @@
+package simpledb.transaction;
+
+import simpledb.common.Database;
+import simpledb.storage.PageId;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LockContentionProfiler records where lock requests wait: for every lock
+ * request that blocked, how long it waited, how many times it woke up and
+ * was still blocked, and whether it failed, aborting its transaction. The
+ * counts are kept per page and per table, and the wait times in a histogram
+ * per table, so the pages and tables that cause waits can be found and the
+ * data repartitioned. A wait for a row lock counts for the row's page; a
+ * wait for a table lock only counts for the table.
+ * <p>
+ * Requests granted at once are not recorded here, so profiling costs
+ * nothing on the uncontended path. BufferPool also records how long getPage
+ * spends acquiring its lock, contended or not, in
+ * {@link #getPageLockTimes()}.
+ */
+public class LockContentionProfiler {
+
+    private static class Counters {
+        final LongAdder waits = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder aborts = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0);
+
+        void record(long nanos, int retries, boolean aborted) {
+            waits.increment();
+            this.retries.add(retries);
+            if (aborted) {
+                aborts.increment();
+            }
+            waitNanos.add(nanos);
+            maxWaitNanos.accumulate(nanos);
+        }
+    }
+
+    private final Map<PageId, Counters> pages = new ConcurrentHashMap<>();
+    private final Map<Integer, Counters> tables = new ConcurrentHashMap<>();
+    private final Map<Integer, LatencyHistogram> tableWaitTimes = new ConcurrentHashMap<>();
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram pageLockTimes = new LatencyHistogram();
+
+    private volatile boolean enabled = true;
+
+    /**
+     * Record a lock request that had to wait.
+     *
+     * @param tableId the table of the resource
+     * @param pageId  the page of the resource, null for a table lock
+     * @param nanos   how long the request waited
+     * @param retries how many times it woke up and was still blocked
+     * @param aborted whether it failed rather than being granted
+     */
+    void recordWait(int tableId, PageId pageId, long nanos, int retries, boolean aborted) {
+        if (!enabled) {
+            return;
+        }
+        if (pageId != null) {
+            pages.computeIfAbsent(pageId, k -> new Counters()).record(nanos, retries, aborted);
+        }
+        tables.computeIfAbsent(tableId, k -> new Counters()).record(nanos, retries, aborted);
+        tableWaitTimes.computeIfAbsent(tableId, k -> new LatencyHistogram()).record(nanos);
+        waitTimes.record(nanos);
+    }
+
+    /**
+     * Record how long getPage took to acquire its page lock.
+     *
+     * @param nanos the time spent in the lock manager
+     */
+    public void recordPageLock(long nanos) {
+        if (enabled) {
+            pageLockTimes.record(nanos);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn recording on or off; the counts recorded so far are kept.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Forget everything recorded so far, e.g. to profile one interval.
+     */
+    public void reset() {
+        pages.clear();
+        tables.clear();
+        tableWaitTimes.clear();
+        waitTimes.reset();
+        pageLockTimes.reset();
+    }
+
+    /**
+     * @return the wait times of every lock request that blocked
+     */
+    public LatencyHistogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * @return the wait times of the lock requests on the table and its pages
+     *         and rows that blocked, empty if none did
+     */
+    public LatencyHistogram getWaitTimes(int tableId) {
+        LatencyHistogram histogram = tableWaitTimes.get(tableId);
+        return histogram == null ? new LatencyHistogram() : histogram;
+    }
+
+    /**
+     * @return the time every getPage spent acquiring its page lock, whether
+     *         it waited or not
+     */
+    public LatencyHistogram getPageLockTimes() {
+        return pageLockTimes;
+    }
+
+    /**
+     * @return the waits on the page and its rows, or null if there were none
+     */
+    public Contention getPageContention(PageId pageId) {
+        Counters counters = pages.get(pageId);
+        return counters == null ? null : new Contention(pageId, pageId.getTableId(), counters);
+    }
+
+    /**
+     * @return the waits on the table, its pages and rows, or null if there
+     *         were none
+     */
+    public Contention getTableContention(int tableId) {
+        Counters counters = tables.get(tableId);
+        return counters == null ? null : new Contention(null, tableId, counters);
+    }
+
+    /**
+     * @param n how many pages to return
+     * @return the n pages requests waited for longest in total, longest first
+     */
+    public List<Contention> getTopContendedPages(int n) {
+        List<Contention> all = new ArrayList<>();
+        for (Map.Entry<PageId, Counters> e : pages.entrySet()) {
+            all.add(new Contention(e.getKey(), e.getKey().getTableId(), e.getValue()));
+        }
+        return top(all, n);
+    }
+
+    /**
+     * @param n how many tables to return
+     * @return the n tables requests waited for longest in total, longest first
+     */
+    public List<Contention> getTopContendedTables(int n) {
+        List<Contention> all = new ArrayList<>();
+        for (Map.Entry<Integer, Counters> e : tables.entrySet()) {
+            all.add(new Contention(null, e.getKey(), e.getValue()));
+        }
+        return top(all, n);
+    }
+
+    private static List<Contention> top(List<Contention> all, int n) {
+        all.sort(Comparator.comparingLong(Contention::getTotalWaitNanos)
+                .thenComparingLong(Contention::getWaits).reversed());
+        return new ArrayList<>(all.subList(0, Math.min(n, all.size())));
+    }
+
+    /**
+     * @param n how many pages and tables to list
+     * @return a readable report of the n most contended tables and pages and
+     *         the histogram of all lock waits
+     */
+    public String report(int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("lock waits: %d, p50 < %d us, p99 < %d us%n", waitTimes.getCount(),
+                waitTimes.getPercentileMicros(0.5), waitTimes.getPercentileMicros(0.99)));
+        sb.append(waitTimes);
+        sb.append("top contended tables:").append(System.lineSeparator());
+        for (Contention c : getTopContendedTables(n)) {
+            sb.append("  ").append(c).append(System.lineSeparator());
+        }
+        sb.append("top contended pages:").append(System.lineSeparator());
+        for (Contention c : getTopContendedPages(n)) {
+            sb.append("  ").append(c).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    private static String tableName(int tableId) {
+        try {
+            return Database.getCatalog().getTableName(tableId);
+        } catch (NoSuchElementException e) {
+            return String.valueOf(tableId);
+        }
+    }
+
+    /**
+     * Contention is a copy of the lock wait counts of one page or table.
+     */
+    public static class Contention {
+        private final PageId pageId;
+        private final int tableId;
+        private final long waits;
+        private final long retries;
+        private final long aborts;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+
+        private Contention(PageId pageId, int tableId, Counters counters) {
+            this.pageId = pageId;
+            this.tableId = tableId;
+            this.waits = counters.waits.sum();
+            this.retries = counters.retries.sum();
+            this.aborts = counters.aborts.sum();
+            this.totalWaitNanos = counters.waitNanos.sum();
+            this.maxWaitNanos = counters.maxWaitNanos.get();
+        }
+
+        /**
+         * @return the page, or null if these are the counts of a table
+         */
+        public PageId getPageId() {
+            return pageId;
+        }
+
+        public int getTableId() {
+            return tableId;
+        }
+
+        /**
+         * @return the number of lock requests that blocked
+         */
+        public long getWaits() {
+            return waits;
+        }
+
+        /**
+         * @return the number of times a blocked request woke up and was still
+         *         blocked
+         */
+        public long getRetries() {
+            return retries;
+        }
+
+        /**
+         * @return the number of blocked requests that failed, aborting their
+         *         transaction
+         */
+        public long getAborts() {
+            return aborts;
+        }
+
+        public long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        @Override
+        public String toString() {
+            String name = tableName(tableId) + (pageId == null ? "" : " page " + pageId.getPageNumber());
+            return String.format("%s: %d waits, %.3f ms total, %.3f ms max, %d retries, %d aborts",
+                    name, waits, totalWaitNanos / 1e6, maxWaitNanos / 1e6, retries, aborts);
+        }
+    }
+}
@@ -2,11 +2,18 @@ package simpledb.transaction;
 
 import simpledb.common.Permissions;
 import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @ClassName LockManager
@@ -17,92 +24,876 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class LockManager {
 
-    private Map<Integer, List<Lock>> map;
+    /**
+     * Default number of page locks a transaction may hold on one table before
+     * they are escalated to a lock on the whole table.
+     */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 512;
+
+    /**
+     * How often a blocked request searches the waits-for graph again, in case
+     * a cycle formed without any request blocking, in ms.
+     */
+    public static final long DETECTION_INTERVAL_MS = 500;
+
+    /**
+     * Lock state of one resource, a row, a page or a table: the granted locks and
+     * the requests waiting for it. Its monitor guards both, and waiters park
+     * on it, so transactions waiting for different resources never wake each
+     * other up.
+     */
+    private static class LockEntry {
+        final List<Lock> holders = new ArrayList<>(2);
+        /**
+         * Requests waiting for the resource in the order they will be
+         * granted: FIFO, except that conversions go to the front.
+         */
+        final LinkedList<Lock> waiters = new LinkedList<>();
+        /**
+         * Set when the entry is dropped from the map; a thread that looked up
+         * the entry before must look the resource up again.
+         */
+        boolean removed;
+
+        Lock holderOf(TransactionId tid) {
+            for (Lock lock : holders) {
+                if (Objects.equals(lock.getTransactionId(), tid)) {
+                    return lock;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return true if the mode is compatible with the locks every other
+         *         transaction holds
+         */
+        boolean compatibleWithHolders(TransactionId tid, LockMode mode) {
+            for (Lock holder : holders) {
+                if (!Objects.equals(holder.getTransactionId(), tid) && !holder.getMode().isCompatibleWith(mode)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the request can be granted now: it conflicts with no
+         *         lock held by another transaction, and no request ahead of
+         *         it in the queue conflicts with it
+         */
+        boolean grantable(Lock request) {
+            for (Lock waiter : waiters) {
+                if (waiter == request) {
+                    break;
+                }
+                if (!waiter.getMode().isCompatibleWith(request.getMode())) {
+                    return false;
+                }
+            }
+            return compatibleWithHolders(request.getTransactionId(), request.getMode());
+        }
+    }
+
+    /**
+     * Key of the lock on a whole table, next to the PageId keys of page locks
+     * and the RecordId keys of row locks.
+     */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(tableId);
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /**
+     * The locks a transaction holds on one table: its table lock, and its page
+     * and row locks unless the table lock covers them.
+     */
+    private static class TableLocks {
+        LockMode tableMode;
+        final Set<PageId> pages = new HashSet<>();
+        final Set<RecordId> rows = new HashSet<>();
+    }
+
+    /**
+     * Lock entries by resource: RecordIds for row locks, PageIds for page
+     * locks, TableKeys for table locks. Keyed by the full PageId, so pages with the same number in
+     * different tables do not share a lock. The map is striped internally,
+     * and each entry has its own monitor, so requests for different
+     * resources never contend on a shared monitor.
+     */
+    private final Map<Object, LockEntry> map;
+
+    /**
+     * The locks each transaction holds, by table, so its locks are released
+     * without scanning the lock table and escalation knows how many pages of
+     * a table it has locked. Each transaction's map is guarded by its own
+     * monitor.
+     */
+    private final Map<TransactionId, Map<Integer, TableLocks>> held = new ConcurrentHashMap<>();
+
+    /**
+     * The resource each blocked transaction waits for; the waits-for graph is
+     * derived from it and the lock entries. Its monitor serializes deadlock
+     * searches.
+     */
+    private final Map<TransactionId, Object> waitingFor = new ConcurrentHashMap<>();
+
+    /**
+     * Transactions chosen as deadlock victims, or wounded by an older
+     * transaction, whose request has not failed yet.
+     */
+    private final Set<TransactionId> victims = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder deadlocks = new LongAdder();
+
+    private final LongAdder aborts = new LongAdder();
+
+    private volatile DeadlockPolicy policy = DeadlockPolicy.DETECT;
+
+    private final LongAdder escalations = new LongAdder();
+
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    private final LockContentionProfiler profiler = new LockContentionProfiler();
 
     public LockManager(){
         this.map = new ConcurrentHashMap<>();
     }
 
-    public synchronized Boolean acquireLock(TransactionId tid, PageId pageId, Permissions permissions){
-        Integer pid = pageId.getPageNumber();
-        Lock lock = new Lock(permissions, tid);
-        List<Lock> lockList = map.get(pid);
-        if(lockList == null){
-            lockList = new ArrayList<>();
-            lockList.add(lock);
-            map.put(pid, lockList);
+    /**
+     * Acquire a shared (READ_ONLY) or exclusive (READ_WRITE) lock on the page,
+     * waiting as long as it takes. Deadlocks are detected when the request
+     * blocks.
+     *
+     * @see #acquireLock(TransactionId, PageId, Permissions, long)
+     */
+    public void acquireLock(TransactionId tid, PageId pageId, Permissions permissions)
+            throws TransactionAbortedException {
+        acquireLock(tid, pageId, permissions, Long.MAX_VALUE);
+    }
+
+    /**
+     * Acquire a shared (READ_ONLY) or exclusive (READ_WRITE) lock on the page,
+     * waiting until it is granted.
+     * <p>
+     * The transaction first takes an intention lock (IS or IX) on the table,
+     * then the page lock. A table lock in S, SIX or X mode that already
+     * covers the request makes the page lock unnecessary. Once the
+     * transaction holds {@link #getEscalationThreshold()} page locks on the
+     * table, it tries to lock the whole table instead, S if it only read the
+     * table and X otherwise, and drops its page locks on it; if the table
+     * lock cannot be granted at once, it keeps locking pages.
+     * <p>
+     * Requests are granted in arrival order, except that a transaction
+     * converting a lock it holds goes ahead of every other waiter. How
+     * deadlocks are handled depends on the {@link DeadlockPolicy}: under
+     * DETECT, when the request blocks, the waits-for graph is searched for a
+     * cycle through the transaction, and again whenever it wakes up still
+     * blocked, at least every {@link #DETECTION_INTERVAL_MS}. The youngest
+     * transaction of a cycle is the victim: its request fails, whichever
+     * thread found the cycle. Under WAIT_DIE the request fails as soon as it
+     * would wait for an older transaction; under WOUND_WAIT it aborts the
+     * younger transactions it waits for instead. A request that blocks is
+     * recorded by the {@link #getProfiler() contention profiler}.
+     *
+     * @param tid         the transaction requesting the lock
+     * @param pageId      the page to lock
+     * @param permissions READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @param timeoutMs   how long to wait before giving up
+     * @throws TransactionAbortedException if the transaction is chosen as a
+     *         deadlock victim, dies or is wounded, or the lock is not granted
+     *         in time
+     */
+    public void acquireLock(TransactionId tid, PageId pageId, Permissions permissions, long timeoutMs)
+            throws TransactionAbortedException {
+        long deadline = deadline(timeoutMs);
+        int tableId = pageId.getTableId();
+        LockMode pageMode = LockMode.of(permissions);
+        if (lockTable(tid, tableId, LockMode.intentionOf(permissions), deadline).implies(pageMode)) {
+            return;
+        }
+
+        Map<Integer, TableLocks> locks = held.get(tid);
+        boolean escalate;
+        synchronized (locks) {
+            TableLocks tableLocks = locks.get(tableId);
+            escalate = !tableLocks.pages.contains(pageId) && tableLocks.pages.size() >= escalationThreshold;
+        }
+        if (escalate && escalate(tid, tableId, permissions)) {
+            return;
+        }
+        acquire(tid, pageId, pageMode, deadline);
+        synchronized (locks) {
+            locks.get(tableId).pages.add(pageId);
+        }
+    }
+
+    /**
+     * Acquire a lock on a whole table, waiting until it is granted. S, SIX
+     * and X table locks cover reading, respectively writing, every page of
+     * the table; IS and IX only announce page or row locks.
+     *
+     * @param tid       the transaction requesting the lock
+     * @param tableId   the table to lock
+     * @param mode      the mode to lock the table in
+     * @param timeoutMs how long to wait before giving up
+     * @throws TransactionAbortedException if the transaction is chosen as a
+     *         deadlock victim or the lock is not granted in time
+     */
+    public void acquireTableLock(TransactionId tid, int tableId, LockMode mode, long timeoutMs)
+            throws TransactionAbortedException {
+        lockTable(tid, tableId, mode, deadline(timeoutMs));
+    }
+
+    /**
+     * Acquire a shared (READ_ONLY) or exclusive (READ_WRITE) lock on a
+     * tuple, waiting until it is granted. The transaction first takes
+     * intention locks on the table and the page of the tuple, so writers of
+     * different tuples of a page run concurrently, while transactions
+     * locking the whole page wait for them. A table or page lock that
+     * already covers the request makes the row lock unnecessary.
+     *
+     * @see #acquireLock(TransactionId, PageId, Permissions, long)
+     */
+    public void acquireRowLock(TransactionId tid, RecordId rid, Permissions permissions, long timeoutMs)
+            throws TransactionAbortedException {
+        long deadline = deadline(timeoutMs);
+        PageId pageId = rid.getPageId();
+        LockMode rowMode = LockMode.of(permissions);
+        LockMode intention = LockMode.intentionOf(permissions);
+        if (lockTable(tid, pageId.getTableId(), intention, deadline).implies(rowMode)) {
+            return;
+        }
+        LockMode pageMode = acquire(tid, pageId, intention, deadline);
+        addPage(tid, pageId);
+        if (pageMode.implies(rowMode)) {
+            return;
+        }
+        acquire(tid, rid, rowMode, deadline);
+        addRow(tid, rid);
+    }
+
+    /**
+     * Acquire a lock on a tuple like {@link #acquireRowLock}, but only if it
+     * can be granted without waiting, for the table, the page and the tuple.
+     *
+     * @return true if the transaction now holds the lock
+     */
+    public boolean tryAcquireRowLock(TransactionId tid, RecordId rid, Permissions permissions) {
+        PageId pageId = rid.getPageId();
+        int tableId = pageId.getTableId();
+        LockMode rowMode = LockMode.of(permissions);
+        LockMode intention = LockMode.intentionOf(permissions);
+        LockMode tableMode = getTableLock(tid, tableId);
+        if (tableMode == null || !tableMode.implies(intention)) {
+            tableMode = tryAcquire(tid, new TableKey(tableId), intention);
+            if (tableMode == null) {
+                return false;
+            }
+            setTableMode(tid, tableId, tableMode);
+        }
+        if (tableMode.implies(rowMode)) {
+            return true;
+        }
+        LockMode pageMode = tryAcquire(tid, pageId, intention);
+        if (pageMode == null) {
+            return false;
+        }
+        addPage(tid, pageId);
+        if (pageMode.implies(rowMode) || tryAcquire(tid, rid, rowMode) != null) {
+            addRow(tid, rid);
             return true;
         }
-        // 只有一个事务占用锁
-        if(lockList.size() == 1){
-            Lock firstLock = lockList.get(0);
-            if(firstLock.getTransactionId().equals(tid)){
-                if(firstLock.getPermissions().equals(Permissions.READ_ONLY) && lock.getPermissions().equals(Permissions.READ_WRITE)){
+        return false;
+    }
+
+    private static long deadline(long timeoutMs) {
+        long start = System.currentTimeMillis();
+        return timeoutMs > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + timeoutMs;
+    }
+
+    /**
+     * Lock the table in the given mode unless the transaction already holds
+     * it in a mode that implies it.
+     *
+     * @return the mode the transaction now holds the table in
+     */
+    private LockMode lockTable(TransactionId tid, int tableId, LockMode mode, long deadline)
+            throws TransactionAbortedException {
+        LockMode tableMode = getTableLock(tid, tableId);
+        if (tableMode != null && tableMode.implies(mode)) {
+            return tableMode;
+        }
+        tableMode = acquire(tid, new TableKey(tableId), mode, deadline);
+        setTableMode(tid, tableId, tableMode);
+        return tableMode;
+    }
+
+    private void setTableMode(TransactionId tid, int tableId, LockMode mode) {
+        Map<Integer, TableLocks> locks = held.computeIfAbsent(tid, k -> new HashMap<>());
+        synchronized (locks) {
+            locks.computeIfAbsent(tableId, k -> new TableLocks()).tableMode = mode;
+        }
+    }
+
+    private void addPage(TransactionId tid, PageId pageId) {
+        Map<Integer, TableLocks> locks = held.get(tid);
+        synchronized (locks) {
+            locks.get(pageId.getTableId()).pages.add(pageId);
+        }
+    }
+
+    private void addRow(TransactionId tid, RecordId rid) {
+        Map<Integer, TableLocks> locks = held.get(tid);
+        synchronized (locks) {
+            locks.get(rid.getPageId().getTableId()).rows.add(rid);
+        }
+    }
+
+    /**
+     * Try to replace the transaction's page locks on the table by a lock on
+     * the whole table, without waiting.
+     *
+     * @return true if the table is now locked in a mode covering the request
+     */
+    private boolean escalate(TransactionId tid, int tableId, Permissions permissions) {
+        Map<Integer, TableLocks> locks = held.get(tid);
+        TableLocks tableLocks;
+        LockMode mode;
+        synchronized (locks) {
+            tableLocks = locks.get(tableId);
+            // a transaction that announced page writes needs the whole table exclusive
+            mode = permissions == Permissions.READ_WRITE || tableLocks.tableMode.implies(LockMode.IX)
+                    ? LockMode.X : LockMode.S;
+        }
+        if (tryAcquire(tid, new TableKey(tableId), mode) == null) {
+            return false;
+        }
+        List<Object> covered = new ArrayList<>();
+        synchronized (locks) {
+            tableLocks.tableMode = tableLocks.tableMode.supremum(mode);
+            covered.addAll(tableLocks.rows);
+            covered.addAll(tableLocks.pages);
+            tableLocks.rows.clear();
+            tableLocks.pages.clear();
+        }
+        for (Object key : covered) {
+            unlock(tid, key);
+        }
+        escalations.increment();
+        return true;
+    }
+
+    /**
+     * Grant the lock on the resource if that needs no waiting, converting the
+     * lock the transaction already holds on it if any.
+     *
+     * @return the mode the transaction now holds the resource in, or null if
+     *         the lock could not be granted at once
+     */
+    private LockMode tryAcquire(TransactionId tid, Object key, LockMode mode) {
+        while (true) {
+            LockEntry entry = map.computeIfAbsent(key, k -> new LockEntry());
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                Lock lock = entry.holderOf(tid);
+                Lock request = new Lock(lock == null ? mode : lock.getMode().supremum(mode), tid);
+                if (lock != null ? entry.compatibleWithHolders(tid, request.getMode()) : entry.grantable(request)) {
+                    grant(entry, lock, request);
+                    return request.getMode();
+                }
+                if (lock == null) {
+                    release(key, entry);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Lock the resource in the given mode, converting the lock the
+     * transaction already holds on it if any, and wait until it is granted.
+     *
+     * @return the mode the transaction now holds the resource in
+     */
+    private LockMode acquire(TransactionId tid, Object key, LockMode mode, long deadline)
+            throws TransactionAbortedException {
+        DeadlockPolicy policy = this.policy;
+        // a mark left by a search that raced with a grant is stale, but a wound is not
+        if (victims.remove(tid) && policy == DeadlockPolicy.WOUND_WAIT) {
+            throw abort();
+        }
+        LockEntry entry;
+        Lock lock;
+        Lock request;
+        while (true) {
+            entry = map.computeIfAbsent(key, k -> new LockEntry());
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                lock = entry.holderOf(tid);
+                if (lock != null && lock.getMode().implies(mode)) {
+                    return lock.getMode();
+                }
+                request = new Lock(lock == null ? mode : lock.getMode().supremum(mode), tid);
+                // a conversion jumps the queue, so it only waits for the other holders
+                if (lock != null ? entry.compatibleWithHolders(tid, request.getMode()) : entry.grantable(request)) {
+                    grant(entry, lock, request);
+                    return request.getMode();
+                }
+                if (lock != null) {
                     // 升级锁
-                    firstLock.setPermissions(Permissions.READ_WRITE);
+                    entry.waiters.addFirst(request);
+                } else {
+                    entry.waiters.addLast(request);
                 }
-                return true;
-            } else {
-                if(firstLock.getPermissions().equals(Permissions.READ_ONLY) && lock.getPermissions().equals(Permissions.READ_ONLY)){
-                    lockList.add(lock);
-                    return true;
+                break;
+            }
+        }
+        // the request is queued, so the entry stays in the map until it leaves
+        waitingFor.put(tid, key);
+        Set<TransactionId> wounded = new HashSet<>();
+        long waitStart = System.nanoTime();
+        int retries = -1;
+        boolean granted = false;
+        try {
+            while (true) {
+                // a victim that leaves the queue may not break every cycle through it
+                if (policy == DeadlockPolicy.DETECT) {
+                    detectDeadlock(tid);
                 }
-                return false;
+                List<TransactionId> wounding = new ArrayList<>();
+                retries++;
+                synchronized (entry) {
+                    if (victims.remove(tid)) {
+                        throw abort();
+                    }
+                    if (entry.grantable(request)) {
+                        grant(entry, lock, request);
+                        granted = true;
+                        return request.getMode();
+                    }
+                    // blockers change as locks are released and conversions jump the queue
+                    for (TransactionId blocker : blockers(entry, request)) {
+                        if (policy == DeadlockPolicy.WAIT_DIE && blocker.getId() < tid.getId()) {
+                            throw abort();
+                        }
+                        // each younger blocker is wounded once, then waited for
+                        if (policy == DeadlockPolicy.WOUND_WAIT && blocker.getId() > tid.getId()
+                                && wounded.add(blocker)) {
+                            wounding.add(blocker);
+                        }
+                    }
+                    if (wounding.isEmpty()) {
+                        long now = System.currentTimeMillis();
+                        if (now >= deadline) {
+                            throw abort();
+                        }
+                        long wakeUp = policy == DeadlockPolicy.DETECT
+                                ? Math.min(deadline, now + DETECTION_INTERVAL_MS) : deadline;
+                        entry.wait(Math.max(1, wakeUp - now));
+                    }
+                }
+                for (TransactionId victim : wounding) {
+                    victims.add(victim);
+                    wakeUp(victim);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw abort();
+        } finally {
+            waitingFor.remove(tid);
+            synchronized (entry) {
+                entry.waiters.remove(request);
+                // requests queued behind this one may be grantable now
+                release(key, entry);
             }
+            recordWait(key, System.nanoTime() - waitStart, retries, !granted);
         }
-        //有多个事务则说明lockList中均为共享锁
-        if(lock.getPermissions().equals(Permissions.READ_WRITE)){
-            return false;
+    }
+
+    /**
+     * Charge a blocked request to its page, a row's page, and its table.
+     */
+    private void recordWait(Object key, long nanos, int retries, boolean aborted) {
+        PageId pageId = key instanceof RecordId ? ((RecordId) key).getPageId()
+                : key instanceof PageId ? (PageId) key : null;
+        int tableId = pageId != null ? pageId.getTableId() : ((TableKey) key).tableId;
+        profiler.recordWait(tableId, pageId, nanos, retries, aborted);
+    }
+
+    private TransactionAbortedException abort() {
+        aborts.increment();
+        return new TransactionAbortedException();
+    }
+
+    /**
+     * Wake up a transaction if it is waiting for a lock, so it notices it
+     * was chosen as a victim.
+     */
+    private void wakeUp(TransactionId tid) {
+        Object key = waitingFor.get(tid);
+        LockEntry entry = key == null ? null : map.get(key);
+        if (entry != null) {
+            synchronized (entry) {
+                entry.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the transactions a queued request waits for: those holding a
+     *         conflicting lock, and those queued ahead of it with a
+     *         conflicting request. Called with the entry's monitor held.
+     */
+    private static List<TransactionId> blockers(LockEntry entry, Lock request) {
+        List<TransactionId> blockers = new ArrayList<>();
+        TransactionId tid = request.getTransactionId();
+        for (Lock waiter : entry.waiters) {
+            if (waiter == request) {
+                break;
+            }
+            if (!waiter.getMode().isCompatibleWith(request.getMode())) {
+                blockers.add(waiter.getTransactionId());
+            }
         }
-        //同一个事务重复获取读锁
-        for (Lock lock1 : lockList){
-            if(lock1.getTransactionId().equals(tid)){
-                return true;
+        for (Lock holder : entry.holders) {
+            if (!Objects.equals(holder.getTransactionId(), tid)
+                    && !holder.getMode().isCompatibleWith(request.getMode())) {
+                blockers.add(holder.getTransactionId());
             }
         }
-        lockList.add(lock);
-        return true;
+        return blockers;
+    }
+
+    /**
+     * Grant a request: convert the lock the transaction holds, or add a new
+     * one. Called with the entry's monitor held.
+     */
+    private void grant(LockEntry entry, Lock lock, Lock request) {
+        if (lock != null) {
+            lock.setMode(request.getMode());
+        } else {
+            entry.holders.add(request);
+        }
     }
 
-    public synchronized void releaseLock(TransactionId tid, PageId pageId){
-        List<Lock> lockList = map.get(pageId.getPageNumber());
-        for (int i=0; i<lockList.size(); i++){
-            Lock lock = lockList.get(i);
-            if(lock.getTransactionId().equals(tid)){
-                lockList.remove(lock);
-                if(lockList.size() == 0){
-                    map.remove(pageId.getPageNumber());
+    /**
+     * Search the waits-for graph for cycles through the given waiting
+     * transaction and make the youngest transaction of each one the victim
+     * and wake it up. Searches are serialized, and a transaction is
+     * registered as waiting before it searches, so of two transactions that
+     * close a cycle at the same time the second one finds it.
+     * <p>
+     * The edges are read resource by resource, each under its entry's monitor
+     * only, so an edge may be slightly stale; a transaction may then be
+     * aborted for a cycle that had just been broken, never left in a real one.
+     */
+    private void detectDeadlock(TransactionId tid) {
+        synchronized (waitingFor) {
+            // victims are on their way out, so the cycles through them are
+            // broken already; every other cycle through tid needs its own
+            List<TransactionId> cycle;
+            while (!victims.contains(tid)
+                    && (cycle = findCycle(tid, new ArrayList<>(), new HashSet<>())) != null) {
+                TransactionId victim = cycle.get(0);
+                for (TransactionId t : cycle) {
+                    if (t.getId() > victim.getId()) {
+                        victim = t;
+                    }
                 }
+                deadlocks.increment();
+                victims.add(victim);
+                wakeUp(victim);
+            }
+        }
+    }
+
+    /**
+     * Depth-first search for a path from the last transaction of the path
+     * back to its first one.
+     *
+     * @return the transactions of the cycle, or null if there is none
+     */
+    private List<TransactionId> findCycle(TransactionId tid, List<TransactionId> path,
+                                          Set<TransactionId> visited) {
+        path.add(tid);
+        visited.add(tid);
+        for (TransactionId next : waitsFor(tid)) {
+            if (next.equals(path.get(0))) {
+                return path;
+            }
+            if (!visited.contains(next) && !victims.contains(next)) {
+                List<TransactionId> cycle = findCycle(next, path, visited);
+                if (cycle != null) {
+                    return cycle;
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        return null;
+    }
+
+    /**
+     * @return the transactions the given one waits for
+     */
+    private List<TransactionId> waitsFor(TransactionId tid) {
+        Object key = waitingFor.get(tid);
+        LockEntry entry = key == null ? null : map.get(key);
+        if (entry == null) {
+            return new ArrayList<>();
+        }
+        synchronized (entry) {
+            for (Lock waiter : entry.waiters) {
+                if (Objects.equals(waiter.getTransactionId(), tid)) {
+                    return blockers(entry, waiter);
+                }
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * @return the number of deadlocks detected, each of which aborted one
+     *         transaction
+     */
+    public long getNumDeadlocks() {
+        return deadlocks.sum();
+    }
+
+    /**
+     * @return the number of lock requests that failed, aborting their
+     *         transaction: deadlock victims, wait-die and wound-wait aborts,
+     *         and timeouts
+     */
+    public long getNumAborts() {
+        return aborts.sum();
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return policy;
+    }
+
+    /**
+     * Choose how transactions are kept from waiting for each other forever.
+     * Only change the policy while no request is waiting.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return the wait times, retries and aborts of the lock requests that
+     *         blocked, by page and table
+     */
+    public LockContentionProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @return the number of times page locks were escalated to a table lock
+     */
+    public long getNumEscalations() {
+        return escalations.sum();
+    }
+
+    /**
+     * @return the number of page locks a transaction may hold on one table
+     *         before they are escalated to a table lock
+     */
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /**
+     * Set the number of page locks a transaction may hold on one table before
+     * they are escalated to a table lock.
+     *
+     * @param pages the threshold, Integer.MAX_VALUE to never escalate
+     */
+    public void setEscalationThreshold(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("escalation threshold must be positive");
+        }
+        this.escalationThreshold = pages;
+    }
+
+    /**
+     * Release the transaction's lock on the page before it completes. Does
+     * nothing if the page is covered by a table lock.
+     */
+    public void releaseLock(TransactionId tid, PageId pageId){
+        Map<Integer, TableLocks> locks = held.get(tid);
+        if (locks == null) {
+            return;
+        }
+        synchronized (locks) {
+            TableLocks tableLocks = locks.get(pageId.getTableId());
+            if (tableLocks == null || !tableLocks.pages.remove(pageId)) {
                 return;
             }
         }
+        unlock(tid, pageId);
     }
 
-    public synchronized void releaseAllLock(TransactionId tid){
-        for (Integer k : map.keySet()){
-            List<Lock> lockList = map.get(k);
-            for (int i=0; i<lockList.size(); i++){
-                Lock lock = lockList.get(i);
-                if(lock.getTransactionId().equals(tid)){
-                    lockList.remove(lock);
-                    if(lockList.size() == 0){
-                        map.remove(k);
-                    }
-                    break;
+    public void releaseAllLock(TransactionId tid){
+        victims.remove(tid);
+        Map<Integer, TableLocks> locks = held.remove(tid);
+        if (locks == null) {
+            return;
+        }
+        synchronized (locks) {
+            for (Map.Entry<Integer, TableLocks> e : locks.entrySet()) {
+                for (RecordId rid : e.getValue().rows) {
+                    unlock(tid, rid);
+                }
+                for (PageId pageId : e.getValue().pages) {
+                    unlock(tid, pageId);
+                }
+                // finer locks go first, so nobody sees them without their intention locks
+                if (e.getValue().tableMode != null) {
+                    unlock(tid, new TableKey(e.getKey()));
                 }
             }
         }
     }
 
-    public synchronized Boolean holdLock(TransactionId tid, PageId pageId){
-        List<Lock> lockList = map.get(pageId.getPageNumber());
-        for (int i=0; i<lockList.size(); i++){
-            Lock lock = lockList.get(i);
-            if(lock.getTransactionId().equals(tid)){
-                return true;
+    /**
+     * @return the number of page locks the transaction holds, not counting
+     *         the pages covered by its table locks
+     */
+    public int getNumLocks(TransactionId tid) {
+        Map<Integer, TableLocks> locks = held.get(tid);
+        if (locks == null) {
+            return 0;
+        }
+        synchronized (locks) {
+            int n = 0;
+            for (TableLocks tableLocks : locks.values()) {
+                n += tableLocks.pages.size();
+            }
+            return n;
+        }
+    }
+
+    /**
+     * @return the mode the transaction holds the table in, or null if it
+     *         holds no lock on it
+     */
+    public LockMode getTableLock(TransactionId tid, int tableId) {
+        Map<Integer, TableLocks> locks = held.get(tid);
+        if (locks == null) {
+            return null;
+        }
+        synchronized (locks) {
+            TableLocks tableLocks = locks.get(tableId);
+            return tableLocks == null ? null : tableLocks.tableMode;
+        }
+    }
+
+    private void unlock(TransactionId tid, Object key) {
+        LockEntry entry = map.get(key);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            Lock lock = entry.holderOf(tid);
+            if (lock != null) {
+                entry.holders.remove(lock);
+                release(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Wake up the waiters of an entry a lock was removed from, or drop the
+     * entry if nobody holds or waits for it any more. Called with the
+     * entry's monitor held.
+     */
+    private void release(Object key, LockEntry entry) {
+        if (entry.holders.isEmpty() && entry.waiters.isEmpty()) {
+            entry.removed = true;
+            map.remove(key, entry);
+        } else {
+            entry.notifyAll();
+        }
+    }
+
+    /**
+     * @return true if the transaction holds a lock on the page, or on its
+     *         table in a mode that covers reading it
+     */
+    public Boolean holdLock(TransactionId tid, PageId pageId){
+        LockMode tableMode = getTableLock(tid, pageId.getTableId());
+        if (tableMode != null && tableMode.implies(LockMode.S)) {
+            return true;
+        }
+        LockEntry entry = map.get(pageId);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            return entry.holderOf(tid) != null;
+        }
+    }
+
+    /**
+     * @return true if the transaction holds a lock on the tuple, or on its
+     *         page or table in a mode that covers reading it
+     */
+    public boolean holdRowLock(TransactionId tid, RecordId rid) {
+        LockMode tableMode = getTableLock(tid, rid.getPageId().getTableId());
+        if (tableMode != null && tableMode.implies(LockMode.S)) {
+            return true;
+        }
+        for (Object key : new Object[]{rid.getPageId(), rid}) {
+            LockEntry entry = map.get(key);
+            if (entry == null) {
+                continue;
+            }
+            synchronized (entry) {
+                Lock lock = entry.holderOf(tid);
+                if (lock != null && (key == rid || lock.getMode().implies(LockMode.S))) {
+                    return true;
+                }
             }
         }
         return false;
     }
 
+    /**
+     * @return the number of transactions waiting for a lock on the page
+     */
+    public int getNumWaiters(PageId pageId) {
+        LockEntry entry = map.get(pageId);
+        if (entry == null) {
+            return 0;
+        }
+        synchronized (entry) {
+            return entry.waiters.size();
+        }
+    }
+
 }
@@ -0,0 +1,81 @@
+package simpledb.transaction;
+
+import simpledb.common.Permissions;
+
+/**
+ * Modes of the locks LockManager grants. Pages are locked in S or X mode;
+ * tables are locked in the intention modes IS and IX by transactions that
+ * lock some of their pages, or in S, SIX or X mode to cover all of them.
+ */
+public enum LockMode {
+    /** Intention to lock some pages of the table shared. */
+    IS,
+    /** Intention to lock some pages of the table exclusive. */
+    IX,
+    /** Shared. */
+    S,
+    /** Shared, with the intention to lock some pages exclusive. */
+    SIX,
+    /** Exclusive. */
+    X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //        IS     IX     S      SIX    X
+            /* IS  */ {true, true, true, true, false},
+            /* IX  */ {true, true, false, false, false},
+            /* S   */ {true, false, true, false, false},
+            /* SIX */ {true, false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /**
+     * @return true if two transactions can hold this mode and the other one
+     *         on the same resource at the same time
+     */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return true if holding this mode grants everything the other mode does
+     */
+    public boolean implies(LockMode other) {
+        return supremum(other) == this;
+    }
+
+    /**
+     * @return the weakest mode that grants everything this mode and the other
+     *         one do, which a lock is converted to when both are requested
+     */
+    public LockMode supremum(LockMode other) {
+        if (this == other) {
+            return this;
+        }
+        if (this == X || other == X) {
+            return X;
+        }
+        if (this == SIX || other == SIX) {
+            return SIX;
+        }
+        if ((this == S && other == IX) || (this == IX && other == S)) {
+            return SIX;
+        }
+        // IS is implied by every other mode
+        return this == IS ? other : this;
+    }
+
+    /**
+     * @return the page lock mode for the given permissions
+     */
+    public static LockMode of(Permissions permissions) {
+        return permissions == Permissions.READ_WRITE ? X : S;
+    }
+
+    /**
+     * @return the table lock mode announcing page locks with the given
+     *         permissions
+     */
+    public static LockMode intentionOf(Permissions permissions) {
+        return permissions == Permissions.READ_WRITE ? IX : IS;
+    }
+}
@@ -11,10 +11,21 @@ import java.io.IOException;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly whether the transaction only reads, on a snapshot of
+     *                 the database taken when it starts
+     * @see simpledb.storage.BufferPool#beginSnapshot(TransactionId)
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
     }
 
     /**
@@ -22,6 +33,11 @@ public class Transaction {
      */
     public void start() {
         started = true;
+        if (readOnly) {
+            // a snapshot changes nothing, so it needs no log records
+            Database.getBufferPool().beginSnapshot(tid);
+            return;
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -33,6 +49,10 @@ public class Transaction {
         return tid;
     }
 
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     /**
      * Finish the transaction
      */
@@ -54,7 +74,7 @@ public class Transaction {
 
         if (started) {
             //write abort log record and rollback transaction
-            if (abort) {
+            if (abort && !readOnly) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             }
 
@@ -62,7 +82,7 @@ public class Transaction {
             Database.getBufferPool().transactionComplete(tid, !abort); // release locks
 
             // write commit log record
-            if (!abort) {
+            if (!abort && !readOnly) {
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolCleanerTest extends TestUtil.CreateHeapFile {
+    private static final int NUM_PAGES = 8;
+
+    private HeapFile hf;
+    private byte[][] onDisk;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * NUM_PAGES, null, null);
+        onDisk = new byte[NUM_PAGES][];
+        for (int i = 0; i < NUM_PAGES; i++) {
+            onDisk[i] = hf.readPage(new HeapPageId(hf.getId(), i)).getPageData();
+        }
+    }
+
+    /**
+     * Delete the first tuple of every page of the table, dirtying all of
+     * them.
+     *
+     * @return the deleted tuples
+     */
+    private List<Tuple> deleteFromEveryPage(BufferPool bp, TransactionId tid) throws Exception {
+        List<Tuple> deleted = new ArrayList<>();
+        for (int i = 0; i < NUM_PAGES; i++) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            Tuple t = page.iterator().next();
+            bp.deleteTuple(tid, t);
+            deleted.add(t);
+        }
+        return deleted;
+    }
+
+    private int numDirty(BufferPool bp, TransactionId tid) throws Exception {
+        int dirty = 0;
+        for (int i = 0; i < NUM_PAGES; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            if (bp.holdsLock(tid, pid) && bp.getPage(tid, pid, Permissions.READ_WRITE).isDirty() != null) {
+                dirty++;
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Without the cleaner, a transaction cannot dirty more pages than the
+     * pool holds.
+     */
+    @Test public void noStealWithoutCleaner() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES / 2);
+        assertEquals(0, bp.getCleanFraction(), 0);
+        TransactionId tid = new TransactionId();
+        try {
+            deleteFromEveryPage(bp, tid);
+            fail("expected the pool to run out of clean pages");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * With the cleaner, a transaction dirties more pages than the pool holds,
+     * and its updates reach disk when it commits.
+     */
+    @Test public void stealThenCommit() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES / 2);
+        bp.setCleanFraction(0.5);
+        TransactionId tid = new TransactionId();
+        List<Tuple> deleted = deleteFromEveryPage(bp, tid);
+        assertTrue(bp.getStats().getDirtyWritebacks() > 0);
+        bp.transactionComplete(tid, true);
+
+        for (int i = 0; i < NUM_PAGES; i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            assertEquals(1, page.getNumUnusedSlots());
+            assertFalse(TestUtil.compareTuples(deleted.get(i), page.iterator().next()));
+        }
+    }
+
+    /**
+     * Pages the cleaner wrote back for a transaction that aborts are put
+     * back on disk as they were, and the pool no longer caches them.
+     */
+    @Test public void stealThenAbort() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES / 2);
+        bp.setCleanFraction(0.5);
+        TransactionId tid = new TransactionId();
+        deleteFromEveryPage(bp, tid);
+        bp.transactionComplete(tid, false);
+
+        TransactionId reader = new TransactionId();
+        for (int i = 0; i < NUM_PAGES; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            assertArrayEquals(onDisk[i], hf.readPage(pid).getPageData());
+            assertArrayEquals(onDisk[i], bp.getPage(reader, pid, Permissions.READ_ONLY).getPageData());
+        }
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * The cleaner writes dirty pages back in the background until the
+     * configured fraction of the pool is clean again.
+     */
+    @Test public void backgroundCleaning() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES);
+        bp.setCleanFraction(0.5);
+        TransactionId tid = new TransactionId();
+        deleteFromEveryPage(bp, tid);
+        for (int i = 0; i < 500 && numDirty(bp, tid) > NUM_PAGES / 2; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(numDirty(bp, tid) <= NUM_PAGES / 2);
+        bp.transactionComplete(tid, false);
+        for (int i = 0; i < NUM_PAGES; i++) {
+            assertArrayEquals(onDisk[i], hf.readPage(new HeapPageId(hf.getId(), i)).getPageData());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolCleanerTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolConcurrencyTest extends TestUtil.CreateHeapFile {
+    private static final int NUM_PAGES = 32;
+    private static final int OPS_PER_THREAD = 20000;
+
+    private HeapFile hf;
+    private List<PageId> pids;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * NUM_PAGES, null, null);
+        assertEquals(NUM_PAGES, hf.numPages());
+        pids = new ArrayList<>();
+        for (int i = 0; i < NUM_PAGES; i++) {
+            pids.add(new HeapPageId(hf.getId(), i));
+        }
+    }
+
+    /**
+     * Runs the given number of reader threads, each with its own transaction,
+     * that fetch pages round-robin from the pool.
+     *
+     * @return the elapsed wall clock time in nanoseconds
+     */
+    private long runReaders(final BufferPool bp, int threads, final int ops, final Page[] expected)
+            throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            Thread reader = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                try {
+                    barrier.await();
+                    for (int i = 0; i < ops; i++) {
+                        int n = (i + offset) % NUM_PAGES;
+                        Page p = bp.getPage(tid, pids.get(n), Permissions.READ_ONLY);
+                        if (expected != null && p != expected[n]) {
+                            throw new AssertionError("hit returned a different copy of " + pids.get(n));
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    bp.transactionComplete(tid);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        barrier.await();
+        long start = System.nanoTime();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+        return elapsed;
+    }
+
+    /**
+     * Concurrent readers of resident pages only ever hit the cache, and report
+     * the hit path throughput from one thread up to one thread per core.
+     */
+    @Test public void hitPathScaling() throws Exception {
+        hitPathScaling("LRU", ReplacementPolicy.LRU);
+        hitPathScaling("CLOCK", ReplacementPolicy.CLOCK);
+    }
+
+    private void hitPathScaling(String name, ReplacementPolicy.Factory policy) throws Exception {
+        BufferPool bp = new BufferPool(NUM_PAGES * 2, policy);
+        TransactionId loader = new TransactionId();
+        Page[] expected = new Page[NUM_PAGES];
+        for (int i = 0; i < NUM_PAGES; i++) {
+            expected[i] = bp.getPage(loader, pids.get(i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(loader);
+
+        int maxThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long elapsed = runReaders(bp, threads, OPS_PER_THREAD, expected);
+            long opsPerMs = (long) threads * OPS_PER_THREAD * 1000000L / Math.max(1, elapsed);
+            System.out.println("BufferPoolConcurrencyTest " + name + " " + threads + " thread(s): "
+                    + opsPerMs + " hits/ms");
+        }
+    }
+
+    /**
+     * Concurrent misses on a pool smaller than the table never grow the pool
+     * beyond its capacity and never hand out two copies of a resident page.
+     */
+    @Test public void concurrentMissesRespectCapacity() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES / 4);
+        runReaders(bp, 4, NUM_PAGES * 8, null);
+        assertTrue(bp.getNumResidentPages() <= NUM_PAGES / 4);
+
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        Page p1 = bp.getPage(tid1, pids.get(0), Permissions.READ_ONLY);
+        Page p2 = bp.getPage(tid2, pids.get(0), Permissions.READ_ONLY);
+        assertSame(p1, p2);
+        bp.transactionComplete(tid1);
+        bp.transactionComplete(tid2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolDirtyPagesTest extends TestUtil.CreateHeapFile {
+    private static final int NUM_PAGES = 8;
+
+    /** Records the pages written back, and how many batches they came in. */
+    static class RecordingHeapFile extends HeapFile {
+        final List<PageId> written = new ArrayList<>();
+        int batches = 0;
+
+        RecordingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            batches++;
+            for (Page page : pages) {
+                written.add(page.getId());
+            }
+            super.writePages(pages);
+        }
+    }
+
+    private RecordingHeapFile hf;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * NUM_PAGES, 1000, null, null);
+        hf = new RecordingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        bp = Database.resetBufferPool(NUM_PAGES);
+    }
+
+    /**
+     * Pages written in one batch reach the file, whether they are
+     * consecutive or not.
+     */
+    @Test public void batchedWritesReachDisk() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page[] pages = new Page[NUM_PAGES];
+        for (int i : new int[]{5, 0, 2, 1, 7}) {
+            pages[i] = write(tid, i);
+            ((HeapPage) pages[i]).deleteTuple(((HeapPage) pages[i]).iterator().next());
+        }
+        bp.transactionComplete(tid, true);
+        assertEquals(Arrays.asList(0, 1, 2, 5, 7), pageNumbers(hf.written));
+        for (int i : new int[]{5, 0, 2, 1, 7}) {
+            assertArrayEquals(pages[i].getPageData(),
+                    hf.readPage(new HeapPageId(hf.getId(), i)).getPageData());
+        }
+    }
+
+    private static List<Integer> pageNumbers(List<PageId> pids) {
+        List<Integer> numbers = new ArrayList<>();
+        for (PageId pid : pids) {
+            numbers.add(pid.getPageNumber());
+        }
+        return numbers;
+    }
+
+    private Page write(TransactionId tid, int pageNumber) throws Exception {
+        Page page = bp.getPage(tid, new HeapPageId(hf.getId(), pageNumber), Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+        return page;
+    }
+
+    /**
+     * A commit writes back the pages its transaction dirtied, and only those,
+     * while pages of other transactions stay dirty in the pool.
+     */
+    @Test public void commitFlushesOwnPagesOnly() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        Page other = write(tid2, 0);
+        write(tid1, 1);
+        write(tid1, 2);
+        bp.getPage(tid1, new HeapPageId(hf.getId(), 3), Permissions.READ_ONLY);
+
+        bp.transactionComplete(tid1, true);
+        // written in one batch, in page order
+        assertEquals(1, hf.batches);
+        assertEquals(2, hf.written.size());
+        assertEquals(new HeapPageId(hf.getId(), 1), hf.written.get(0));
+        assertEquals(new HeapPageId(hf.getId(), 2), hf.written.get(1));
+        assertEquals(tid2, other.isDirty());
+
+        bp.transactionComplete(tid2, true);
+        assertEquals(3, hf.written.size());
+        assertNull(other.isDirty());
+    }
+
+    /**
+     * An abort restores the pages its transaction dirtied, and leaves the
+     * pages of other transactions alone.
+     */
+    @Test public void abortDiscardsOwnPagesOnly() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        Page other = write(tid2, 0);
+        Page mine = write(tid1, 1);
+
+        bp.transactionComplete(tid1, false);
+        assertTrue(hf.written.isEmpty());
+        TransactionId tid3 = new TransactionId();
+        Page reread = bp.getPage(tid3, mine.getId(), Permissions.READ_ONLY);
+        assertNotSame(mine, reread);
+        assertNull(reread.isDirty());
+        assertEquals(tid2, other.isDirty());
+        bp.transactionComplete(tid3);
+        bp.transactionComplete(tid2, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolDirtyPagesTest.class);
+    }
+}
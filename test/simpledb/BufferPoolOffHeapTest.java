@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolOffHeapTest extends TestUtil.CreateHeapFile {
+    private static final int NUM_PAGES = 8;
+
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * NUM_PAGES, null, tuples);
+    }
+
+    private BufferPool offHeapPool(int numPages) {
+        return Database.resetBufferPool(new BufferPool(numPages, 1, ReplacementPolicy.LRU, true));
+    }
+
+    /**
+     * A scan through an off-heap pool much smaller than the table reads every
+     * tuple, frames being reused as pages are evicted.
+     */
+    @Test public void scanThroughSmallPool() throws Exception {
+        BufferPool bp = offHeapPool(2);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page evicted from the pool keeps its contents after its frame has been
+     * given to another page.
+     */
+    @Test public void evictedPageIsDetached() throws Exception {
+        BufferPool bp = offHeapPool(1);
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        byte[] before = first.getPageData();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertArrayEquals(before, first.getPageData());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted into and deleted from off-heap pages reach the file
+     * when the transaction commits.
+     */
+    @Test public void updatesReachDisk() throws Exception {
+        BufferPool bp = offHeapPool(4);
+        TransactionId tid = new TransactionId();
+        Tuple added = Utility.getHeapTuple(new int[]{-1, -2});
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        Tuple removed = page.iterator().next();
+        bp.deleteTuple(tid, removed);
+        bp.insertTuple(tid, hf.getId(), added);
+        bp.transactionComplete(tid);
+
+        HeapPage onDisk = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        boolean foundAdded = false;
+        Iterator<Tuple> it = onDisk.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            foundAdded |= TestUtil.compareTuples(added, t);
+            assertFalse(TestUtil.compareTuples(removed, t));
+        }
+        assertTrue(foundAdded);
+    }
+
+    /**
+     * Tuples inserted while another transaction's scan keeps evicting the
+     * page they go to, clean again after each commit, are all on disk, and
+     * the frames handed around meanwhile hold no stray writes.
+     */
+    @Test public void insertWhileEvicting() throws Exception {
+        BufferPool bp = offHeapPool(3);
+        List<List<Integer>> inserted = new ArrayList<>();
+        HeapFile target = SystemTestUtil.createRandomHeapFile(2, 10, null, inserted);
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread scanner = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    TransactionId tid = new TransactionId();
+                    SystemTestUtil.matchTuples(hf, tid, tuples);
+                    bp.transactionComplete(tid);
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        scanner.start();
+        try {
+            for (int i = 0; i < 200 && failure.get() == null; i++) {
+                TransactionId tid = new TransactionId();
+                bp.insertTuple(tid, target.getId(), Utility.getHeapTuple(new int[]{i, -i}));
+                bp.transactionComplete(tid);
+                inserted.add(List.of(i, -i));
+            }
+        } finally {
+            done.set(true);
+            scanner.join();
+        }
+        assertNull(failure.get());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(target, tid, inserted);
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolOffHeapTest.class);
+    }
+}
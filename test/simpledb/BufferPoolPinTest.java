@@ -0,0 +1,132 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.AccessHint;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolPinTest extends TestUtil.CreateHeapFile {
+    private static final int NUM_PAGES = 8;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * NUM_PAGES, null, null);
+        bp = Database.resetBufferPool(new BufferPool(2, 1, ReplacementPolicy.LRU));
+        tid = new TransactionId();
+    }
+
+    private Page read(int pageNumber) throws Exception {
+        return bp.getPage(tid, new HeapPageId(hf.getId(), pageNumber), Permissions.READ_ONLY);
+    }
+
+    /**
+     * A pinned page stays resident while every other page cycles through the
+     * pool, and becomes evictable again once unpinned.
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Page pinned = bp.pinPage(tid, pid, Permissions.READ_ONLY, AccessHint.NORMAL);
+        assertTrue(bp.isPinned(pid));
+        for (int i = 1; i < NUM_PAGES; i++) {
+            read(i);
+        }
+        assertSame(pinned, read(0));
+
+        bp.unpinPage(tid, pid);
+        assertFalse(bp.isPinned(pid));
+        for (int i = 1; i < NUM_PAGES; i++) {
+            read(i);
+        }
+        assertNotSame(pinned, read(0));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page pinned twice needs two unpins, and eviction fails when every
+     * page of the pool is pinned.
+     */
+    @Test public void evictionSkipsAllPinnedPool() throws Exception {
+        HeapPageId pid0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId pid1 = new HeapPageId(hf.getId(), 1);
+        bp.pinPage(tid, pid0, Permissions.READ_ONLY, AccessHint.NORMAL);
+        bp.pinPage(tid, pid0, Permissions.READ_ONLY, AccessHint.NORMAL);
+        bp.pinPage(tid, pid1, Permissions.READ_ONLY, AccessHint.NORMAL);
+        try {
+            read(2);
+            fail("expected eviction to fail when all pages are pinned");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.unpinPage(tid, pid0);
+        assertTrue(bp.isPinned(pid0));
+        bp.unpinPage(tid, pid0);
+        assertFalse(bp.isPinned(pid0));
+        read(2);
+        assertTrue(bp.isPinned(pid1));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pins left behind by the transaction are released when it completes.
+     */
+    @Test public void transactionCompleteReleasesPins() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        bp.pinPage(tid, pid, Permissions.READ_ONLY, AccessHint.NORMAL);
+        bp.transactionComplete(tid);
+        assertFalse(bp.isPinned(pid));
+    }
+
+    /**
+     * A scan pins only the page it is walking, so it runs through a pool much
+     * smaller than the table, and releases its last pin on close.
+     */
+    @Test public void iteratorPinsCurrentPage() throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertTrue(it.hasNext());
+        it.next();
+        assertTrue(bp.isPinned(new HeapPageId(hf.getId(), 0)));
+
+        int count = 1;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(504 * NUM_PAGES, count);
+        assertFalse(bp.isPinned(new HeapPageId(hf.getId(), 0)));
+        it.close();
+        for (int i = 0; i < NUM_PAGES; i++) {
+            assertFalse(bp.isPinned(new HeapPageId(hf.getId(), i)));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPinTest.class);
+    }
+}
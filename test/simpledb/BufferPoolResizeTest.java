@@ -0,0 +1,110 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolResizeTest extends TestUtil.CreateHeapFile {
+    private static final int NUM_PAGES = 16;
+
+    private HeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * NUM_PAGES, null, null);
+    }
+
+    private Page[] readAll(BufferPool bp, TransactionId tid) throws Exception {
+        Page[] pages = new Page[NUM_PAGES];
+        for (int i = 0; i < NUM_PAGES; i++) {
+            pages[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        return pages;
+    }
+
+    /**
+     * The memory budget is converted to whole pages.
+     */
+    @Test public void memoryBudget() {
+        BufferPool bp = BufferPool.withMemoryBudget(10L * BufferPool.getPageSize() + 1);
+        assertEquals(10, bp.getNumPages());
+        assertEquals(10L * BufferPool.getPageSize(), bp.getMemoryBudget());
+        bp.setMemoryBudget(3L * BufferPool.getPageSize());
+        assertEquals(3, bp.getNumPages());
+        assertEquals(1, BufferPool.withMemoryBudget(0).getNumPages());
+    }
+
+    /**
+     * Growing lets the whole table fit at once; shrinking evicts down to the
+     * new size right away.
+     */
+    @Test public void growAndShrink() throws Exception {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            BufferPool bp = Database.resetBufferPool(new BufferPool(4, 4, ReplacementPolicy.LRU, offHeap));
+            TransactionId tid = new TransactionId();
+            readAll(bp, tid);
+            assertEquals(4, bp.getNumResidentPages());
+
+            bp.resize(NUM_PAGES);
+            Page[] pages = readAll(bp, tid);
+            assertEquals(NUM_PAGES, bp.getNumResidentPages());
+            long evictions = bp.getStats().getEvictions();
+            assertArrayEquals(pages, readAll(bp, tid));
+            assertEquals(evictions, bp.getStats().getEvictions());
+
+            bp.resize(2);
+            assertEquals(2, bp.getNumResidentPages());
+            readAll(bp, tid);
+            assertTrue(bp.getNumResidentPages() <= 2);
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Shrinking never evicts dirty pages; the pool gets down to size once
+     * they have been written back.
+     */
+    @Test public void shrinkKeepsDirtyPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(NUM_PAGES, 1, ReplacementPolicy.LRU));
+        TransactionId reader = new TransactionId();
+        readAll(bp, reader);
+        bp.transactionComplete(reader);
+
+        TransactionId writer = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[]{1, 2});
+        bp.insertTuple(writer, hf.getId(), t);
+        bp.resize(1);
+        assertEquals(1, bp.getNumResidentPages());
+        assertNotNull(bp.getPage(writer, t.getRecordId().getPageId(), Permissions.READ_ONLY).isDirty());
+        bp.transactionComplete(writer);
+
+        TransactionId tid = new TransactionId();
+        readAll(bp, tid);
+        assertEquals(1, bp.getNumResidentPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolRowLockTest extends TestUtil.CreateHeapFile {
+    private static final int NUM_TUPLES = 10;
+
+    private HeapFile hf;
+    private HeapPageId pid;
+    private BufferPool bp;
+    private List<Tuple> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, NUM_TUPLES, null, null);
+        pid = new HeapPageId(hf.getId(), 0);
+        bp = Database.resetBufferPool(4);
+        bp.setRowLocking(true);
+
+        // the tuples of the page, in slot order
+        tuples = new ArrayList<>();
+        TransactionId reader = new TransactionId();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        bp.transactionComplete(reader);
+        assertEquals(NUM_TUPLES, tuples.size());
+    }
+
+    private static boolean contains(HeapPage page, Tuple t) {
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            if (TestUtil.compareTuples(t, it.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private HeapPage onDisk() {
+        return (HeapPage) hf.readPage(pid);
+    }
+
+    /**
+     * Two transactions update different tuples of one page without waiting
+     * for each other; the first commit writes only its own changes, and the
+     * second transaction's abort takes only its own changes out of the page.
+     */
+    @Test public void writersShareAPage() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Tuple added1 = Utility.getHeapTuple(new int[]{-1, -1});
+        Tuple added2 = Utility.getHeapTuple(new int[]{-2, -2});
+        bp.deleteTuple(t1, tuples.get(0));
+        bp.insertTuple(t2, hf.getId(), added2);
+        bp.deleteTuple(t2, tuples.get(1));
+        bp.insertTuple(t1, hf.getId(), added1);
+        // t1 reuses the slot it freed itself, t2 cannot
+        assertEquals(0, added1.getRecordId().getTupleNumber());
+        assertEquals(NUM_TUPLES, added2.getRecordId().getTupleNumber());
+
+        bp.transactionComplete(t1, true);
+        HeapPage disk = onDisk();
+        assertFalse(contains(disk, tuples.get(0)));
+        assertTrue(contains(disk, added1));
+        assertTrue(contains(disk, tuples.get(1)));
+        assertFalse(contains(disk, added2));
+
+        bp.transactionComplete(t2, false);
+        TransactionId reader = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY);
+        assertNull(page.isDirty());
+        assertTrue(contains(page, tuples.get(1)));
+        assertFalse(contains(page, added2));
+        assertTrue(contains(page, added1));
+        assertArrayEquals(disk.getPageData(), page.getPageData());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A slot freed by a delete that is not committed yet is not reused by
+     * another transaction, so the delete can still be rolled back.
+     */
+    @Test public void insertSkipsSlotOfRunningDelete() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, tuples.get(3));
+        Tuple added = Utility.getHeapTuple(new int[]{-1, -1});
+        bp.insertTuple(t2, hf.getId(), added);
+        assertNotEquals(3, added.getRecordId().getTupleNumber());
+
+        bp.transactionComplete(t1, false);
+        bp.transactionComplete(t2, true);
+        HeapPage disk = onDisk();
+        assertTrue(contains(disk, tuples.get(3)));
+        assertTrue(contains(disk, added));
+    }
+
+    /**
+     * A transaction reading the whole page waits for the writers of its
+     * tuples, and then sees their committed changes.
+     */
+    @Test public void pageReadersWaitForRowWriters() throws Exception {
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        bp.deleteTuple(writer, tuples.get(0));
+        try {
+            bp.getLockManager().acquireLock(reader, pid, Permissions.READ_ONLY, 20);
+            fail("expected the reader to wait for the writer");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(writer, true);
+        HeapPage page = (HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY);
+        assertFalse(contains(page, tuples.get(0)));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolRowLockTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolSnapshotTest extends TestUtil.CreateHeapFile {
+    private static final int NUM_TUPLES = 10;
+
+    private HeapFile hf;
+    private HeapPageId pid;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, NUM_TUPLES, null, null);
+        pid = new HeapPageId(hf.getId(), 0);
+        bp = Database.resetBufferPool(4);
+        bp.setSnapshotReads(true);
+    }
+
+    private int countTuples(TransactionId tid) throws Exception {
+        int n = 0;
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * A snapshot reads a page exclusively locked by a writer without
+     * waiting, and keeps seeing the page as it was when it began after the
+     * writer commits; a later snapshot sees the commit.
+     */
+    @Test public void snapshotIgnoresLaterCommits() throws Exception {
+        TransactionId writer = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(writer, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(writer, page.iterator().next());
+
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertEquals(NUM_TUPLES, countTuples(reader));
+        assertFalse(bp.holdsLock(reader, pid));
+
+        bp.transactionComplete(writer, true);
+        assertEquals(NUM_TUPLES, countTuples(reader));
+        assertEquals(1, bp.getNumVersions());
+
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(NUM_TUPLES - 1, countTuples(later));
+        bp.transactionComplete(later);
+
+        // the kept image goes away with the last snapshot that can see it
+        bp.transactionComplete(reader);
+        assertEquals(0, bp.getNumVersions());
+    }
+
+    /**
+     * A writer locks pages a snapshot is reading without waiting.
+     */
+    @Test public void writersDoNotWaitForSnapshots() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        countTuples(reader);
+        TransactionId writer = new TransactionId();
+        bp.getLockManager().acquireLock(writer, pid, Permissions.READ_WRITE, 0);
+        bp.transactionComplete(writer);
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * Snapshots only read.
+     */
+    @Test public void snapshotsCannotUpdate() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        try {
+            bp.getPage(reader, pid, Permissions.READ_WRITE);
+            fail("expected a snapshot not to get a page for writing");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            bp.insertTuple(reader, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+            fail("expected a snapshot not to insert");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A read-only transaction scans a table while a writer holds uncommitted
+     * inserts into it, and sees none of them.
+     */
+    @Test public void readOnlyTransactionScans() throws Exception {
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            bp.insertTuple(writer, hf.getId(), Utility.getHeapTuple(new int[]{i, i}));
+        }
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        SeqScan scan = new SeqScan(reader.getId(), hf.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        reader.commit();
+        assertEquals(NUM_TUPLES, n);
+        bp.transactionComplete(writer, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolSnapshotTest.class);
+    }
+}
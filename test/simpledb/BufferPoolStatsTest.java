@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferPoolStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolStatsTest extends TestUtil.CreateHeapFile {
+    private HeapFile hf;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        bp = Database.resetBufferPool(new BufferPool(2, 1, ReplacementPolicy.LRU));
+    }
+
+    /**
+     * Hits, misses, evictions, reads and residency follow the page requests.
+     */
+    @Test public void countsPageRequests() throws Exception {
+        BufferPoolStats.Snapshot before = bp.getStats().snapshot();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, new HeapPageId(hf.getId(), 3), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        BufferPoolStats.Snapshot delta = bp.getStats().snapshot().minus(before);
+        assertEquals(1, delta.getHits());
+        assertEquals(4, delta.getMisses());
+        assertEquals(0.2, delta.getHitRatio(), 1e-9);
+        assertEquals(2, delta.getEvictions());
+        assertEquals(4, delta.getPagesRead());
+        assertEquals(4L * BufferPool.getPageSize(), delta.getBytesRead());
+        assertEquals(2, delta.getResidentPages());
+        assertEquals(Integer.valueOf(2), delta.getResidentPagesByTable().get(hf.getId()));
+    }
+
+    /**
+     * Committing a transaction writes its dirty pages back and counts them.
+     */
+    @Test public void countsWritebacks() throws Exception {
+        BufferPoolStats.Snapshot before = bp.getStats().snapshot();
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+        bp.transactionComplete(tid);
+
+        BufferPoolStats.Snapshot delta = bp.getStats().snapshot().minus(before);
+        assertEquals(1, delta.getDirtyWritebacks());
+        assertTrue(delta.getBytesWritten() >= BufferPool.getPageSize());
+    }
+
+    /**
+     * A page read-ahead cannot load is counted instead of silently dropped.
+     */
+    @Test public void countsReadAheadFailures() throws Exception {
+        BufferPoolStats.Snapshot before = bp.getStats().snapshot();
+        HeapPageId missing = new HeapPageId(hf.getId(), hf.numPages() + 10);
+        bp.readAhead(Collections.singletonList(missing));
+        // waits for the read-ahead of the page to finish
+        bp.removePage(missing);
+
+        BufferPoolStats.Snapshot delta = bp.getStats().snapshot().minus(before);
+        assertEquals(0, delta.getReadAheadPages());
+        assertEquals(1, delta.getReadAheadFailures());
+    }
+
+    /**
+     * The stats of the buffer pool of the Database are published as an MBean.
+     */
+    @Test public void publishedThroughJmx() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPoolStats.OBJECT_NAME);
+        assertEquals(2, server.getAttribute(name, "Capacity"));
+        assertEquals(1L, server.getAttribute(name, "Misses"));
+        assertNotNull(server.getAttribute(name, "ResidentPagesByTable"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolWarmUpTest extends TestUtil.CreateHeapFile {
+    private static final int NUM_PAGES = 8;
+
+    private HeapFile hf;
+    private File warmUpFile;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * NUM_PAGES, null, null);
+        warmUpFile = File.createTempFile("warmup", ".dat");
+        warmUpFile.deleteOnExit();
+    }
+
+    private void read(BufferPool bp, int... pageNumbers) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pageNumber : pageNumbers) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), pageNumber), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    private void awaitResident(BufferPool bp, int pages) throws InterruptedException {
+        for (int i = 0; i < 500 && bp.getNumResidentPages() < pages; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(pages, bp.getNumResidentPages());
+    }
+
+    /**
+     * The pages resident when the ids were saved are read back by a new pool
+     * in the background, so reading them afterwards only hits.
+     */
+    @Test public void warmUpRestoresResidentPages() throws Exception {
+        BufferPool before = Database.resetBufferPool(NUM_PAGES);
+        read(before, 1, 3, 5);
+        before.saveResidentPageIds(warmUpFile);
+
+        BufferPool after = Database.resetBufferPool(NUM_PAGES);
+        assertEquals(3, after.warmUp(warmUpFile));
+        awaitResident(after, 3);
+        long misses = after.getStats().getMisses();
+        read(after, 5, 1, 3);
+        assertEquals(misses, after.getStats().getMisses());
+    }
+
+    /**
+     * A pool smaller than the saved set only reads back the most recently
+     * used pages.
+     */
+    @Test public void warmUpKeepsMostRecentPages() throws Exception {
+        BufferPool before = Database.resetBufferPool(new BufferPool(NUM_PAGES, 1, ReplacementPolicy.LRU));
+        read(before, 0, 1, 2, 3, 4, 5);
+        before.saveResidentPageIds(warmUpFile);
+
+        BufferPool after = Database.resetBufferPool(new BufferPool(2, 1, ReplacementPolicy.LRU));
+        assertEquals(2, after.warmUp(warmUpFile));
+        awaitResident(after, 2);
+        long misses = after.getStats().getMisses();
+        read(after, 5, 4);
+        assertEquals(misses, after.getStats().getMisses());
+    }
+
+    /**
+     * A missing file, and ids of tables no longer in the catalog, are
+     * ignored.
+     */
+    @Test public void warmUpIgnoresStaleIds() throws Exception {
+        BufferPool bp = Database.resetBufferPool(NUM_PAGES);
+        assertTrue(warmUpFile.delete());
+        assertEquals(0, bp.warmUp(warmUpFile));
+
+        read(bp, 0, 1);
+        bp.saveResidentPageIds(warmUpFile);
+        Database.getCatalog().clear();
+        assertEquals(0, Database.resetBufferPool(NUM_PAGES).warmUp(warmUpFile));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolWarmUpTest.class);
+    }
+}
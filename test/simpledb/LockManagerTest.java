@@ -0,0 +1,494 @@
+package simpledb;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.DeadlockPolicy;
+import simpledb.transaction.LockContentionProfiler;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    /** Long enough for a granted waiter never to time out in these tests. */
+    private static final long WAIT_MS = 10000;
+
+    private LockManager lm;
+    private PageId pid;
+    private List<String> granted;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        pid = new HeapPageId(1, 0);
+        granted = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Start a thread that requests the lock and records its name once the
+     * lock is granted, and wait until it is queued.
+     */
+    private Thread request(String name, TransactionId tid, Permissions perm) throws InterruptedException {
+        int waiters = lm.getNumWaiters(pid);
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(tid, pid, perm, WAIT_MS);
+                granted.add(name);
+            } catch (TransactionAbortedException e) {
+                granted.add(name + " aborted");
+            }
+        });
+        t.start();
+        while (lm.getNumWaiters(pid) == waiters && t.isAlive()) {
+            Thread.sleep(1);
+        }
+        return t;
+    }
+
+    /**
+     * A shared request arriving after a queued exclusive request waits behind
+     * it, even though it is compatible with the lock currently held.
+     */
+    @Test public void waitersAreGrantedInOrder() throws Exception {
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        TransactionId lateReader = new TransactionId();
+        lm.acquireLock(reader, pid, Permissions.READ_ONLY, 0);
+
+        Thread w = request("writer", writer, Permissions.READ_WRITE);
+        Thread r = request("lateReader", lateReader, Permissions.READ_ONLY);
+        assertEquals(2, lm.getNumWaiters(pid));
+        assertTrue(granted.isEmpty());
+
+        lm.releaseAllLock(reader);
+        w.join();
+        assertEquals(1, granted.size());
+        assertEquals("writer", granted.get(0));
+
+        lm.releaseLock(writer, pid);
+        r.join();
+        assertEquals("lateReader", granted.get(1));
+        assertTrue(lm.holdLock(lateReader, pid));
+    }
+
+    /**
+     * A reader upgrading its lock goes ahead of an exclusive request that
+     * was queued before it.
+     */
+    @Test public void upgradesGoFirst() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(t1, pid, Permissions.READ_ONLY, 0);
+        lm.acquireLock(t2, pid, Permissions.READ_ONLY, 0);
+
+        Thread writer = request("t3", t3, Permissions.READ_WRITE);
+        Thread upgrade = request("t1", t1, Permissions.READ_WRITE);
+        lm.releaseLock(t2, pid);
+        upgrade.join();
+        assertEquals("t1", granted.get(0));
+
+        lm.releaseLock(t1, pid);
+        writer.join();
+        assertEquals("t3", granted.get(1));
+    }
+
+    /**
+     * A request that cannot be granted in time aborts without leaving
+     * anything queued, and locks already held are granted again at once.
+     */
+    @Test public void timeoutAborts() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, pid, Permissions.READ_WRITE, 0);
+        lm.acquireLock(t1, pid, Permissions.READ_ONLY, 0);
+        try {
+            lm.acquireLock(t2, pid, Permissions.READ_ONLY, 20);
+            fail("expected the request to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(0, lm.getNumWaiters(pid));
+        assertFalse(lm.holdLock(t2, pid));
+        lm.releaseAllLock(t1);
+        lm.acquireLock(t2, pid, Permissions.READ_WRITE, 0);
+    }
+
+    /**
+     * Two transactions each waiting for the other's lock form a deadlock:
+     * the younger one is aborted, the older one gets its lock, and the
+     * deadlock is counted.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        PageId other = new HeapPageId(1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(older, pid, Permissions.READ_WRITE);
+        lm.acquireLock(younger, other, Permissions.READ_WRITE);
+
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(older, other, Permissions.READ_WRITE);
+                granted.add("older");
+            } catch (TransactionAbortedException e) {
+                granted.add("older aborted");
+            }
+        });
+        t.start();
+        while (lm.getNumWaiters(other) == 0) {
+            Thread.sleep(1);
+        }
+        try {
+            lm.acquireLock(younger, pid, Permissions.READ_WRITE);
+            fail("expected the younger transaction to be aborted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(1, lm.getNumDeadlocks());
+        assertEquals(0, lm.getNumWaiters(pid));
+        lm.releaseAllLock(younger);
+        t.join();
+        assertEquals("older", granted.get(0));
+    }
+
+    /**
+     * Readers upgrading the same page deadlock; the younger one is aborted
+     * and the older one's upgrade goes through.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(older, pid, Permissions.READ_ONLY);
+        lm.acquireLock(younger, pid, Permissions.READ_ONLY);
+
+        Thread t = request("older", older, Permissions.READ_WRITE);
+        try {
+            lm.acquireLock(younger, pid, Permissions.READ_WRITE);
+            fail("expected the younger transaction to be aborted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseAllLock(younger);
+        t.join();
+        assertEquals("older", granted.get(0));
+        assertEquals(1, lm.getNumDeadlocks());
+    }
+
+    /**
+     * Pages with the same number in different tables are locked
+     * independently.
+     */
+    @Test public void tablesDoNotShareLocks() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, new HeapPageId(1, 0), Permissions.READ_WRITE, 0);
+        lm.acquireLock(t2, new HeapPageId(2, 0), Permissions.READ_WRITE, 0);
+        assertTrue(lm.holdLock(t1, new HeapPageId(1, 0)));
+        assertFalse(lm.holdLock(t1, new HeapPageId(2, 0)));
+    }
+
+    /**
+     * A transaction's lock set follows its grants and releases, and
+     * releasing all its locks leaves the other transactions' locks alone.
+     */
+    @Test public void releaseAllReleasesOwnLocks() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            lm.acquireLock(t1, new HeapPageId(1, i), Permissions.READ_ONLY, 0);
+            lm.acquireLock(t2, new HeapPageId(1, i), Permissions.READ_ONLY, 0);
+        }
+        lm.acquireLock(t1, new HeapPageId(1, 0), Permissions.READ_ONLY, 0);
+        assertEquals(10, lm.getNumLocks(t1));
+        lm.releaseLock(t1, new HeapPageId(1, 9));
+        assertEquals(9, lm.getNumLocks(t1));
+
+        lm.releaseAllLock(t1);
+        assertEquals(0, lm.getNumLocks(t1));
+        assertEquals(10, lm.getNumLocks(t2));
+        for (int i = 0; i < 10; i++) {
+            assertFalse(lm.holdLock(t1, new HeapPageId(1, i)));
+            assertTrue(lm.holdLock(t2, new HeapPageId(1, i)));
+        }
+    }
+
+    /**
+     * A reader that locks as many pages of a table as the threshold gets a
+     * shared lock on the whole table instead, and its page locks are dropped.
+     */
+    @Test public void readsEscalateToShared() throws Exception {
+        lm.setEscalationThreshold(4);
+        TransactionId t1 = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            lm.acquireLock(t1, new HeapPageId(1, i), Permissions.READ_ONLY, 0);
+        }
+        assertEquals(LockMode.IS, lm.getTableLock(t1, 1));
+        assertEquals(4, lm.getNumLocks(t1));
+
+        lm.acquireLock(t1, new HeapPageId(1, 4), Permissions.READ_ONLY, 0);
+        assertEquals(LockMode.S, lm.getTableLock(t1, 1));
+        assertEquals(0, lm.getNumLocks(t1));
+        assertEquals(1, lm.getNumEscalations());
+        assertTrue(lm.holdLock(t1, new HeapPageId(1, 100)));
+
+        // other readers still get in, writers have to wait for the table lock
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t2, new HeapPageId(1, 0), Permissions.READ_ONLY, 0);
+        try {
+            lm.acquireLock(t2, new HeapPageId(1, 1), Permissions.READ_WRITE, 20);
+            fail("expected the writer to wait for the table lock");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseAllLock(t1);
+        assertNull(lm.getTableLock(t1, 1));
+        lm.acquireLock(t2, new HeapPageId(1, 1), Permissions.READ_WRITE, 0);
+    }
+
+    /**
+     * A transaction that wrote pages of the table escalates to an exclusive
+     * table lock, which covers writing every page of the table.
+     */
+    @Test public void writesEscalateToExclusive() throws Exception {
+        lm.setEscalationThreshold(2);
+        TransactionId t1 = new TransactionId();
+        lm.acquireLock(t1, new HeapPageId(1, 0), Permissions.READ_WRITE, 0);
+        lm.acquireLock(t1, new HeapPageId(1, 1), Permissions.READ_ONLY, 0);
+        assertEquals(LockMode.IX, lm.getTableLock(t1, 1));
+        lm.acquireLock(t1, new HeapPageId(1, 2), Permissions.READ_ONLY, 0);
+        assertEquals(LockMode.X, lm.getTableLock(t1, 1));
+        assertEquals(0, lm.getNumLocks(t1));
+        lm.acquireLock(t1, new HeapPageId(1, 3), Permissions.READ_WRITE, 0);
+        assertEquals(0, lm.getNumLocks(t1));
+
+        // other tables are not affected
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t2, new HeapPageId(2, 0), Permissions.READ_WRITE, 0);
+        try {
+            lm.acquireLock(t2, new HeapPageId(1, 5), Permissions.READ_ONLY, 20);
+            fail("expected the reader to wait for the table lock");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Escalation never waits: while another transaction holds a conflicting
+     * intention lock on the table, the transaction keeps locking pages.
+     */
+    @Test public void escalationBacksOffUnderConflict() throws Exception {
+        lm.setEscalationThreshold(2);
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        lm.acquireLock(writer, new HeapPageId(1, 10), Permissions.READ_WRITE, 0);
+        for (int i = 0; i < 5; i++) {
+            lm.acquireLock(reader, new HeapPageId(1, i), Permissions.READ_ONLY, 0);
+        }
+        assertEquals(LockMode.IS, lm.getTableLock(reader, 1));
+        assertEquals(5, lm.getNumLocks(reader));
+        assertEquals(0, lm.getNumEscalations());
+
+        lm.releaseAllLock(writer);
+        lm.acquireLock(reader, new HeapPageId(1, 5), Permissions.READ_ONLY, 0);
+        assertEquals(LockMode.S, lm.getTableLock(reader, 1));
+        assertEquals(0, lm.getNumLocks(reader));
+    }
+
+    /**
+     * Row locks on different tuples of a page are granted together, under
+     * intention locks on the page that keep out transactions locking the
+     * whole page.
+     */
+    @Test public void rowLocksShareAPage() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        RecordId r0 = new RecordId(pid, 0);
+        RecordId r1 = new RecordId(pid, 1);
+        lm.acquireRowLock(t1, r0, Permissions.READ_WRITE, 0);
+        lm.acquireRowLock(t2, r1, Permissions.READ_WRITE, 0);
+        assertTrue(lm.holdRowLock(t1, r0));
+        assertFalse(lm.holdRowLock(t1, r1));
+        assertFalse(lm.tryAcquireRowLock(t3, r0, Permissions.READ_ONLY));
+        try {
+            lm.acquireLock(t3, pid, Permissions.READ_ONLY, 20);
+            fail("expected the page lock to wait for the row writers");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+
+        lm.releaseAllLock(t1);
+        assertTrue(lm.tryAcquireRowLock(t3, r0, Permissions.READ_ONLY));
+        lm.releaseAllLock(t2);
+        lm.releaseAllLock(t3);
+        lm.acquireLock(t3, pid, Permissions.READ_WRITE, 0);
+        assertTrue(lm.holdRowLock(t3, r1));
+    }
+
+    /**
+     * Under wait-die an older transaction waits for a younger one, while a
+     * younger transaction requesting a lock an older one holds is aborted
+     * without waiting.
+     */
+    @Test public void waitDieAbortsYounger() throws Exception {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        PageId other = new HeapPageId(1, 1);
+        lm.acquireLock(older, pid, Permissions.READ_WRITE, 0);
+        lm.acquireLock(younger, other, Permissions.READ_WRITE, 0);
+        try {
+            lm.acquireLock(younger, pid, Permissions.READ_ONLY, WAIT_MS);
+            fail("expected the younger transaction to die");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(1, lm.getNumAborts());
+
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(older, other, Permissions.READ_WRITE, WAIT_MS);
+                granted.add("older");
+            } catch (TransactionAbortedException e) {
+                granted.add("older aborted");
+            }
+        });
+        t.start();
+        while (lm.getNumWaiters(other) == 0 && t.isAlive()) {
+            Thread.sleep(1);
+        }
+        lm.releaseAllLock(younger);
+        t.join();
+        assertEquals("older", granted.get(0));
+        assertEquals(0, lm.getNumDeadlocks());
+    }
+
+    /**
+     * Under wound-wait an older transaction requesting a lock a younger one
+     * holds aborts the younger one, which fails at once if it is waiting,
+     * and gets the lock once the younger one releases its locks.
+     */
+    @Test public void woundWaitAbortsYounger() throws Exception {
+        lm.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        PageId other = new HeapPageId(1, 1);
+        lm.acquireLock(older, other, Permissions.READ_WRITE, 0);
+        lm.acquireLock(younger, pid, Permissions.READ_WRITE, 0);
+
+        // the younger transaction waits for the older one
+        Thread y = new Thread(() -> {
+            try {
+                lm.acquireLock(younger, other, Permissions.READ_WRITE, WAIT_MS);
+                granted.add("younger");
+            } catch (TransactionAbortedException e) {
+                granted.add("younger aborted");
+                lm.releaseAllLock(younger);
+            }
+        });
+        y.start();
+        while (lm.getNumWaiters(other) == 0 && y.isAlive()) {
+            Thread.sleep(1);
+        }
+
+        // the older one wounds it rather than closing the cycle
+        lm.acquireLock(older, pid, Permissions.READ_WRITE, WAIT_MS);
+        y.join();
+        assertEquals("younger aborted", granted.get(0));
+        assertTrue(lm.holdLock(older, pid));
+        assertEquals(1, lm.getNumAborts());
+        assertEquals(0, lm.getNumDeadlocks());
+    }
+
+    /**
+     * A request that waits is charged to its page and table, with its wait
+     * time in the histograms; a request that times out counts as an abort,
+     * and requests granted at once are not recorded.
+     */
+    @Test public void profilerRecordsWaits() throws Exception {
+        LockContentionProfiler profiler = lm.getProfiler();
+        PageId other = new HeapPageId(1, 1);
+        TransactionId holder = new TransactionId();
+        TransactionId waiter = new TransactionId();
+        lm.acquireLock(holder, pid, Permissions.READ_WRITE, 0);
+        lm.acquireLock(waiter, other, Permissions.READ_WRITE, 0);
+        assertNull(profiler.getPageContention(pid));
+
+        try {
+            lm.acquireLock(waiter, pid, Permissions.READ_ONLY, 20);
+            fail("expected the request to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        Thread t = request("waiter", waiter, Permissions.READ_ONLY);
+        Thread.sleep(20);
+        lm.releaseAllLock(holder);
+        t.join();
+        assertEquals("waiter", granted.get(0));
+
+        LockContentionProfiler.Contention page = profiler.getPageContention(pid);
+        assertEquals(2, page.getWaits());
+        assertEquals(1, page.getAborts());
+        assertTrue(page.getTotalWaitNanos() >= 40_000_000L);
+        assertTrue(page.getMaxWaitNanos() >= 20_000_000L);
+        assertNull(profiler.getPageContention(other));
+        assertEquals(2, profiler.getTableContention(1).getWaits());
+        assertEquals(2, profiler.getWaitTimes().getCount());
+        assertEquals(2, profiler.getWaitTimes(1).getCount());
+        assertEquals(0, profiler.getWaitTimes(2).getCount());
+        assertTrue(profiler.getWaitTimes().getPercentileMicros(0.5) > 16_000);
+
+        List<LockContentionProfiler.Contention> top = profiler.getTopContendedPages(10);
+        assertEquals(1, top.size());
+        assertEquals(pid, top.get(0).getPageId());
+        assertTrue(profiler.report(10).contains("page 0"));
+
+        profiler.reset();
+        assertNull(profiler.getPageContention(pid));
+        assertEquals(0, profiler.getWaitTimes().getCount());
+    }
+
+    /**
+     * The most contended pages come first, by total wait time.
+     */
+    @Test public void profilerRanksPages() throws Exception {
+        LockContentionProfiler profiler = lm.getProfiler();
+        PageId hot = new HeapPageId(1, 1);
+        PageId cold = new HeapPageId(2, 0);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, hot, Permissions.READ_WRITE, 0);
+        lm.acquireLock(t1, cold, Permissions.READ_WRITE, 0);
+        for (long timeout : new long[]{5, 50}) {
+            try {
+                lm.acquireLock(t2, timeout == 5 ? cold : hot, Permissions.READ_ONLY, timeout);
+                fail("expected the request to time out");
+            } catch (TransactionAbortedException e) {
+                // expected
+            }
+        }
+        List<LockContentionProfiler.Contention> top = profiler.getTopContendedPages(1);
+        assertEquals(1, top.size());
+        assertEquals(hot, top.get(0).getPageId());
+        assertEquals(2, profiler.getTopContendedPages(5).size());
+        assertEquals(1, profiler.getTopContendedTables(5).get(0).getTableId());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
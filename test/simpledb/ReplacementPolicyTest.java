@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.AccessHint;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockPolicy;
+import simpledb.storage.Frame;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LRUPolicy;
+import simpledb.storage.Page;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.TwoQueuePolicy;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends TestUtil.CreateHeapFile {
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    private List<Frame> addFrames(ReplacementPolicy policy, int n) throws Exception {
+        List<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Frame frame = new Frame(new HeapPage(new HeapPageId(empty.getId(), i), HeapPage.createEmptyPageData()));
+            policy.frameAdded(frame, AccessHint.NORMAL);
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    /**
+     * Unit test for LRUPolicy: the least recently accessed frame is the victim.
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() throws Exception {
+        ReplacementPolicy policy = new LRUPolicy(4);
+        List<Frame> frames = addFrames(policy, 4);
+        policy.frameAccessed(frames.get(0), AccessHint.NORMAL);
+        assertSame(frames.get(1), policy.chooseVictim(f -> true));
+        policy.frameRemoved(frames.get(1));
+        assertSame(frames.get(2), policy.chooseVictim(f -> true));
+        assertSame(frames.get(0), policy.frames().get(0));
+        assertEquals(3, policy.frames().size());
+    }
+
+    /**
+     * Unit test for ClockPolicy: a referenced frame gets a second chance.
+     */
+    @Test public void clockGivesSecondChance() throws Exception {
+        ReplacementPolicy policy = new ClockPolicy(4);
+        List<Frame> frames = addFrames(policy, 4);
+        // the first sweep clears every reference bit, so frame 0 goes first
+        assertSame(frames.get(0), policy.chooseVictim(f -> true));
+        policy.frameRemoved(frames.get(0));
+        policy.frameAccessed(frames.get(1), AccessHint.NORMAL);
+        assertSame(frames.get(2), policy.chooseVictim(f -> true));
+        policy.frameRemoved(frames.get(2));
+        policy.frameAccessed(frames.get(1), AccessHint.NORMAL);
+        assertEquals(2, policy.frames().size());
+        assertSame(frames.get(1), policy.frames().get(0));
+    }
+
+    /**
+     * Frames refused by the evictable predicate are never chosen.
+     */
+    @Test public void skipsFramesThatCannotBeEvicted() throws Exception {
+        for (ReplacementPolicy policy : new ReplacementPolicy[]{
+                new LRUPolicy(3), new ClockPolicy(3), new TwoQueuePolicy(3)}) {
+            List<Frame> frames = addFrames(policy, 3);
+            Frame keep = frames.get(2);
+            Frame victim = policy.chooseVictim(f -> f != frames.get(0) && f != frames.get(1));
+            assertSame(keep, victim);
+            assertNull(policy.chooseVictim(f -> false));
+        }
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: pages seen once leave before the hot set,
+     * and only a page requested again after leaving A1in becomes hot.
+     */
+    @Test public void twoQueuePromotesOnlyRereferencedPages() throws Exception {
+        ReplacementPolicy policy = new TwoQueuePolicy(4);
+        List<Frame> frames = addFrames(policy, 4);
+        Frame first = frames.get(0);
+        // A1in holds more than its share, so its oldest frame goes first
+        assertSame(first, policy.chooseVictim(f -> true));
+        policy.frameRemoved(first);
+
+        // requested again while remembered in A1out: the page is now hot
+        Frame again = new Frame(first.getPage());
+        policy.frameAdded(again, AccessHint.NORMAL);
+        assertSame(again, policy.frames().get(0));
+        // A1in still holds more than its share of one frame
+        for (int i = 0; i < 2; i++) {
+            Frame victim = policy.chooseVictim(f -> true);
+            assertNotSame(again, victim);
+            policy.frameRemoved(victim);
+        }
+    }
+
+    /**
+     * Resident copies of the pages of a small table, fetched with point accesses.
+     */
+    private Page[] touch(BufferPool bp, TransactionId tid, HeapFile hf) throws Exception {
+        Page[] pages = new Page[hf.numPages()];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        return pages;
+    }
+
+    private static void scan(TransactionId tid, HeapFile hf) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+    }
+
+    /**
+     * Big sequential scans do not flush hot pages out of a 2Q pool, while
+     * they do out of an LRU pool.
+     */
+    @Test public void twoQueueSurvivesSequentialScans() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 64, null, null);
+
+        for (ReplacementPolicy.Factory policy : new ReplacementPolicy.Factory[]{
+                ReplacementPolicy.TWO_QUEUE, ReplacementPolicy.LRU}) {
+            BufferPool bp = Database.resetBufferPool(new BufferPool(16, 1, policy));
+            TransactionId tid = new TransactionId();
+            touch(bp, tid, hot);
+            scan(tid, big);
+            Page[] before = touch(bp, tid, hot);
+            scan(tid, big);
+            Page[] after = touch(bp, tid, hot);
+            for (int i = 0; i < before.length; i++) {
+                if (policy == ReplacementPolicy.TWO_QUEUE) {
+                    assertSame(before[i], after[i]);
+                } else {
+                    assertNotSame(before[i], after[i]);
+                }
+            }
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.DeadlockPolicy;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Threads running transactions that each write two hot pages in random
+ * order, so they deadlock often, under every deadlock policy. Aborted
+ * transactions restart with a new TransactionId until they commit; the
+ * benchmark reports the throughput and the number of aborts of each policy.
+ */
+public class DeadlockPolicyTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int HOT_PAGES = 4;
+    private static final int TRANSACTIONS_PER_THREAD = 25;
+    private static final long HOLD_MS = 1;
+
+    private void run(DeadlockPolicy policy) throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        LockManager lm = bp.getLockManager();
+        lm.setDeadlockPolicy(policy);
+
+        CyclicBarrier barrier = new CyclicBarrier(THREADS + 1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    barrier.await();
+                    for (int i = 0; i < TRANSACTIONS_PER_THREAD; i++) {
+                        int first = random.nextInt(HOT_PAGES);
+                        int second = (first + 1 + random.nextInt(HOT_PAGES - 1)) % HOT_PAGES;
+                        boolean committed = false;
+                        while (!committed) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                bp.getPage(tid, new HeapPageId(table.getId(), first), Permissions.READ_WRITE);
+                                Thread.sleep(HOLD_MS);
+                                bp.getPage(tid, new HeapPageId(table.getId(), second), Permissions.READ_WRITE);
+                                committed = true;
+                            } catch (TransactionAbortedException e) {
+                                // restart as a younger transaction
+                            } finally {
+                                bp.transactionComplete(tid, committed);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        barrier.await();
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1000000);
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+
+        if (policy != DeadlockPolicy.DETECT) {
+            assertEquals(0, lm.getNumDeadlocks());
+        }
+        System.out.println("DeadlockPolicyTest " + policy + ", " + THREADS + " threads on " + HOT_PAGES
+                + " hot pages: " + THREADS * TRANSACTIONS_PER_THREAD * 1000L / elapsedMs + " commits/s, "
+                + lm.getNumAborts() + " aborts, " + lm.getNumDeadlocks() + " deadlocks");
+    }
+
+    @Test public void detect() throws Exception {
+        run(DeadlockPolicy.DETECT);
+    }
+
+    @Test public void waitDie() throws Exception {
+        run(DeadlockPolicy.WAIT_DIE);
+    }
+
+    @Test public void woundWait() throws Exception {
+        run(DeadlockPolicy.WOUND_WAIT);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DeadlockPolicyTest.class);
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Threads committing short transactions that each update a page of their
+ * own, so they never wait for locks and commit throughput is bound by log
+ * forces. The benchmark reports commits/s and forces per commit against the
+ * number of threads, with and without group commit.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int TRANSACTIONS_PER_THREAD = 50;
+
+    /**
+     * @return the number of log forces the run took
+     */
+    private long run(HeapFile table, int threads, boolean groupCommit) throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        LogFile log = Database.getLogFile();
+        log.setGroupCommit(groupCommit);
+        long forcesBefore = log.getNumForces();
+
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            HeapPageId pid = new HeapPageId(table.getId(), t);
+            Thread worker = new Thread(() -> {
+                try {
+                    barrier.await();
+                    for (int i = 0; i < TRANSACTIONS_PER_THREAD; i++) {
+                        Transaction tx = new Transaction();
+                        tx.start();
+                        Page page = bp.getPage(tx.getId(), pid, Permissions.READ_WRITE);
+                        page.markDirty(true, tx.getId());
+                        tx.commit();
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        barrier.await();
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsedUs = Math.max(1, (System.nanoTime() - start) / 1000);
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+
+        long commits = (long) threads * TRANSACTIONS_PER_THREAD;
+        long forces = log.getNumForces() - forcesBefore;
+        System.out.println("GroupCommitTest " + (groupCommit ? "group commit" : "force per commit") + ", "
+                + threads + " threads: " + commits * 1000000L / elapsedUs + " commits/s, "
+                + String.format("%.2f", (double) forces / commits) + " forces/commit");
+        return forces;
+    }
+
+    @Test public void commitThroughput() throws Exception {
+        int maxThreads = THREAD_COUNTS[THREAD_COUNTS.length - 1];
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * maxThreads, null, null);
+        for (int threads : THREAD_COUNTS) {
+            long forces = run(table, threads, false);
+            // the update records and the commit record are forced separately,
+            // unless another commit's force already covered the update records
+            long commits = (long) threads * TRANSACTIONS_PER_THREAD;
+            assertTrue(forces >= commits && forces <= 2 * commits);
+            if (threads == 1) {
+                assertEquals(2 * commits, forces);
+            }
+            long groupForces = run(table, threads, true);
+            if (threads == maxThreads) {
+                assertTrue("commits should share forces", groupForces < threads * TRANSACTIONS_PER_THREAD);
+            }
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb.systemtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many threads running short transactions against a handful of hot pages.
+ * Most of the time is spent waiting for locks; the benchmark reports the
+ * throughput and how much CPU the waiting costs.
+ */
+public class LockContentionTest extends SimpleDbTestBase {
+    private static final int THREADS = 32;
+    private static final int HOT_PAGES = 4;
+    private static final int TRANSACTIONS_PER_THREAD = 40;
+    private static final int WRITE_PERCENT = 20;
+    private static final long HOLD_MS = 1;
+
+    @Test public void hotPages() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        CyclicBarrier barrier = new CyclicBarrier(THREADS + 1);
+        AtomicInteger commits = new AtomicInteger();
+        AtomicInteger aborts = new AtomicInteger();
+        AtomicLong cpuNanos = new AtomicLong();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    barrier.await();
+                    for (int i = 0; i < TRANSACTIONS_PER_THREAD; i++) {
+                        TransactionId tid = new TransactionId();
+                        HeapPageId pid = new HeapPageId(table.getId(), random.nextInt(HOT_PAGES));
+                        Permissions perm = random.nextInt(100) < WRITE_PERCENT
+                                ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+                        try {
+                            bp.getPage(tid, pid, perm);
+                            Thread.sleep(HOLD_MS);
+                            commits.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            aborts.incrementAndGet();
+                        } finally {
+                            bp.transactionComplete(tid);
+                        }
+                    }
+                    if (threads.isCurrentThreadCpuTimeSupported()) {
+                        cpuNanos.addAndGet(threads.getCurrentThreadCpuTime());
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        barrier.await();
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1000000);
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+
+        assertEquals(THREADS * TRANSACTIONS_PER_THREAD, commits.get() + aborts.get());
+        assertTrue(commits.get() > 0);
+        System.out.println("LockContentionTest " + THREADS + " threads on " + HOT_PAGES + " hot pages: "
+                + commits.get() * 1000L / elapsedMs + " commits/s, " + aborts.get() + " aborts, "
+                + cpuNanos.get() / 1000000 + " ms CPU over " + elapsedMs + " ms");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LockContentionTest.class);
+    }
+}
@@ -435,6 +435,221 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestLogBuffer()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, -1);
+        LogFile log = Database.getLogFile();
+
+        // *** Test:
+        // update records stay in the log buffer until the log is flushed
+        // up to them, and a flush covers everything buffered before it
+        Transaction t = new Transaction();
+        t.start();
+        Page p = Database.getBufferPool().getPage(t.getId(),
+                new HeapPageId(hf1.getId(), 0), Permissions.READ_ONLY);
+        long forces = log.getNumForces();
+        long lsn1 = log.logWrite(t.getId(), p.getBeforeImage(), p);
+        long lsn2 = log.logWrite(t.getId(), p.getBeforeImage(), p);
+        assertTrue(lsn2 > lsn1);
+        assertTrue(log.getFlushedLsn() <= lsn1);
+        assertEquals(forces, log.getNumForces());
+        log.flushTo(lsn1);
+        assertTrue(log.getFlushedLsn() > lsn2);
+        log.flushTo(lsn2);
+        assertEquals(forces + 1, log.getNumForces());
+        t.commit();
+
+        // *** Test:
+        // LSNs keep growing when a checkpoint truncates the log
+        long end = log.getEndLsn();
+        log.logCheckpoint();
+        assertTrue(log.getEndLsn() > end);
+
+        crash();
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        t.commit();
+    }
+
+    @Test public void TestTupleRecords()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        LogFile log = Database.getLogFile();
+
+        // *** Test:
+        // a one-row insert is logged as a tuple record, not two page images;
+        // doInsert logs the page twice, the second time against the first
+        long end = log.getEndLsn();
+        doInsert(hf1, 1, 2);
+        assertTrue("log grew " + (log.getEndLsn() - end) + " bytes",
+                log.getEndLsn() - end < BufferPool.getPageSize());
+
+        // *** Test:
+        // tuple records are undone by abort, and by recovery for a
+        // transaction that never finished
+        dontInsert(hf1, 3);
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf1, t, 4);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, false);
+        look(hf1, t, 4, false);
+        t.commit();
+    }
+
+    @Test public void TestRecoveryPhases()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // T1 writes a page before a checkpoint and commits after it
+        // T2 commits, but its page write is lost
+        // T3 writes a page and never finishes
+        // crash and recover with several threads: redo skips what the
+        // checkpoint flushed, restores T2's page and takes T3 out
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 12);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+        Database.getLogFile().logCheckpoint();
+        insertRow(hf1, t1, 13);
+        t1.commit();
+
+        doInsert(hf2, 26, 27);
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insertRow(hf1, t3, 28);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        HeapPageId lost = new HeapPageId(hf2.getId(), 0);
+        hf2.writePage(new HeapPage(lost, HeapPage.createEmptyPageData()));
+
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        LogFile log = Database.getLogFile();
+        log.setRecoveryThreads(4);
+        log.recover();
+        assertTrue(log.getSkippedRecords() > 0);
+        assertTrue(log.getReplayedRecords() > 0);
+        assertEquals(2, log.getRecoveryPageWrites());
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 12, true);
+        look(hf1, t, 13, true);
+        look(hf1, t, 28, false);
+        look(hf2, t, 26, true);
+        look(hf2, t, 27, true);
+        t.commit();
+    }
+
+    @Test public void TestFuzzyCheckpoint()
+            throws Exception {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a checkpoint neither waits for the buffer pool nor flushes it
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 3);
+        HeapPageId pid = new HeapPageId(hf1.getId(), 0);
+        Thread checkpoint = new Thread(() -> {
+            try {
+                Database.getLogFile().logCheckpoint();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        synchronized (Database.getBufferPool()) {
+            checkpoint.start();
+            checkpoint.join(10000);
+            assertFalse("checkpoint blocked on the buffer pool", checkpoint.isAlive());
+        }
+        assertNotNull(Database.getBufferPool().getPage(t1.getId(), pid, Permissions.READ_ONLY).isDirty());
+        t1.commit();
+
+        // *** Test:
+        // a write logged before a checkpoint whose page was not written yet
+        // is in the dirty page table, so recovery redoes it
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 4);
+        Page p = Database.getBufferPool().getPage(t2.getId(), pid, Permissions.READ_ONLY);
+        LogFile log = Database.getLogFile();
+        log.flushTo(log.logWrite(t2.getId(), p.getBeforeImage(), p));
+        log.logCheckpoint();
+        log.logCommit(t2.getId());
+        Database.getBufferPool().removePage(pid); // the page write is lost
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insertRow(hf2, t3, 5);
+        Database.getBufferPool().flushAllPages(); // XXX defeat NO-STEAL-based abort
+
+        crash();
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        look(hf1, t, 4, true);
+        look(hf2, t, 5, false);
+        t.commit();
+    }
+
+    @Test public void TestAbortWithCleanerCrash()
+            throws Exception {
+        setup();
+        doInsert(hf1, 1, 2);
+        doInsert(hf2, 3, -1);
+        BufferPool bp = Database.resetBufferPool(1);
+
+        // *** Test:
+        // the cleaner does not steal a page of a transaction whose abort
+        // is logged, or recovery would undo it again over later commits
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 4);
+        Database.getLogFile().logAbort(t1.getId());
+        bp.setCleanFraction(0.5);
+        Transaction t2 = new Transaction();
+        t2.start();
+        try {
+            // a miss with every page dirty makes the cleaner write one back
+            bp.getPage(t2.getId(), new HeapPageId(hf2.getId(), 0), Permissions.READ_ONLY);
+        } catch (DbException e) {
+            // the only dirty page is the aborting transaction's
+        }
+        bp.transactionComplete(t1.getId(), false);
+        t2.commit();
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insertRow(hf1, t3, 5);
+        t3.commit();
+
+        crash();
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 4, false);
+        look(hf1, t, 5, true);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);
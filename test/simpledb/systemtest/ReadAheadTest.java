@@ -0,0 +1,114 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares cold full-table scans with and without read-ahead. Each read of
+ * the table pays a fixed latency, standing in for a device whose latency the
+ * scan would otherwise wait for page after page.
+ */
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 200;
+    private static final int TUPLES = 992 * PAGES;
+    private static final int BUFFER_PAGES = 32;
+    private static final int READ_AHEAD_PAGES = 8;
+    private static final long READ_LATENCY_MS = 5;
+
+    /** Counts reads, and the reads done by threads other than the scan. */
+    static class SlowHeapFile extends HeapFile {
+        final Thread scanner = Thread.currentThread();
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger backgroundReads = new AtomicInteger();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            try {
+                Thread.sleep(READ_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reads.incrementAndGet();
+            if (Thread.currentThread() != scanner) {
+                backgroundReads.incrementAndGet();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private long coldScan(SlowHeapFile table, int readAheadPages) throws Exception {
+        // a single shard evicts in global LRU order, so pages read ahead are
+        // never evicted before the scan reaches them
+        BufferPool bp = Database.resetBufferPool(new BufferPool(BUFFER_PAGES, 1, ReplacementPolicy.LRU));
+        bp.setReadAheadPages(readAheadPages);
+        table.reads.set(0);
+        table.backgroundReads.set(0);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        bp.transactionComplete(tid);
+        assertEquals(TUPLES, count);
+        return elapsed;
+    }
+
+    @Test public void coldScanWithAndWithoutReadAhead() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, TUPLES, 1000, null, tuples);
+        SlowHeapFile table = new SlowHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        // read-ahead is off unless asked for
+        assertEquals(0, Database.resetBufferPool(BUFFER_PAGES).getReadAheadPages());
+
+        // a scan with read-ahead returns every tuple of the table
+        Database.getBufferPool().setReadAheadPages(READ_AHEAD_PAGES);
+        SystemTestUtil.matchTuples(table, tuples);
+
+        long without = coldScan(table, 0);
+        assertEquals(PAGES, table.reads.get());
+        assertEquals(0, table.backgroundReads.get());
+
+        long with = coldScan(table, READ_AHEAD_PAGES);
+        // read-ahead never reads a page twice, and actually runs ahead of the scan
+        assertEquals(PAGES, table.reads.get());
+        assertTrue(table.backgroundReads.get() > 0);
+
+        System.out.println("ReadAheadTest cold scan of " + PAGES + " pages: " + without
+                + " ms without read-ahead, " + with + " ms with "
+                + READ_AHEAD_PAGES + " pages of read-ahead");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}